@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intel.icecp.module.fork;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * <p>
+ * Consistent-hash ring assigning fork keys to the members of a cluster of fork modules subscribed to the same incoming
+ * channel. Every member is placed on the ring at a number of virtual points; a key belongs to the member of the first
+ * point at or after the hash of the key. When a member joins or leaves, only the keys between its points and their
+ * predecessors move, about {@code 1/members} of all keys.
+ *
+ * <p>
+ * The ring is rebuilt on membership changes and replaced atomically, so lookups never block.
+ *
+ */
+public class ConsistentHashRing {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int virtualNodes;
+    private volatile NavigableMap<Long, String> ring = Collections.emptyNavigableMap();
+    private volatile Set<String> members = Collections.emptySet();
+
+    /**
+     * Constructor
+     *
+     * @param virtualNodes number of points per member on the ring, more points spread the keys more evenly
+     */
+    public ConsistentHashRing(int virtualNodes) {
+        if (virtualNodes < 1)
+            throw new IllegalArgumentException("Number of virtual nodes must be positive");
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Parse a comma separated list of member ids
+     *
+     * @param members configured members, may be null
+     * @return set of the non-empty member ids
+     */
+    public static Set<String> parseMembers(String members) {
+        if (members == null)
+            return Collections.emptySet();
+        return Arrays.stream(members.split(","))
+                .map(String::trim)
+                .filter(member -> !member.isEmpty())
+                .collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    /**
+     * Replace the members of the ring
+     *
+     * @param newMembers ids of all members of the cluster
+     */
+    public synchronized void setMembers(Collection<String> newMembers) {
+        NavigableMap<Long, String> newRing = new TreeMap<>();
+        for (String member : new TreeSet<>(newMembers)) {
+            for (int i = 0; i < virtualNodes; i++)
+                newRing.putIfAbsent(hash(member + "#" + i), member);
+        }
+        ring = Collections.unmodifiableNavigableMap(newRing);
+        members = Collections.unmodifiableSet(new TreeSet<>(newMembers));
+    }
+
+    /**
+     * @return ids of the current members
+     */
+    public Set<String> members() {
+        return members;
+    }
+
+    /**
+     * @param key fork key
+     * @return id of the member owning the key, null if the ring has no members
+     */
+    public String owner(String key) {
+        NavigableMap<Long, String> current = ring;
+        if (current.isEmpty())
+            return null;
+        Map.Entry<Long, String> entry = current.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : current.firstEntry().getValue();
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, followed by the MurmurHash3 finalizer to spread similar keys over the ring
+     */
+    static long hash(String value) {
+        long h = FNV_OFFSET_BASIS;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= FNV_PRIME;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
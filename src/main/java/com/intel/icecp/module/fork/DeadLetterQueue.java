@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intel.icecp.module.fork;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.icecp.core.Channel;
+import com.intel.icecp.core.Message;
+import com.intel.icecp.core.messages.BytesMessage;
+import com.intel.icecp.core.misc.ChannelIOException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Collects the messages that could not be forked, counting them per {@link DeadLetterReason}. Once a dead-letter
+ * channel has been set with {@link #start(Channel, Consumer)}, the messages are also buffered and written to it in
+ * batches: one JSON array of {@link DeadLetter} entries per batch, when a batch is full or at the latest after the
+ * flush interval. The entries hold the original message bytes so they can be inspected or replayed. Batches are
+ * always written on the flusher thread, never on the thread recording the dead letter.
+ *
+ * <p>
+ * The buffer is bounded; dead letters arriving while it is full are only counted, as dropped.
+ *
+ */
+public class DeadLetterQueue implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // key of the dropped count in the counts
+    static final String DROPPED = "dropped";
+
+    private final int batchSize;
+    private final int maxBuffered;
+    private final long flushIntervalMs;
+    private final Map<DeadLetterReason, AtomicLong> counters = new EnumMap<>(DeadLetterReason.class);
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private List<DeadLetter> buffer = new ArrayList<>();
+    private volatile Channel<Message> channel;
+    private volatile ScheduledExecutorService flusher;
+
+    /**
+     * Constructor
+     *
+     * @param batchSize number of dead letters written per message on the dead-letter channel
+     * @param maxBuffered maximum number of dead letters waiting to be written
+     * @param flushIntervalMs maximum time a dead letter waits before being written
+     */
+    public DeadLetterQueue(int batchSize, int maxBuffered, long flushIntervalMs) {
+        this.batchSize = batchSize;
+        this.maxBuffered = maxBuffered;
+        this.flushIntervalMs = flushIntervalMs;
+        for (DeadLetterReason reason : DeadLetterReason.values())
+            counters.put(reason, new AtomicLong());
+    }
+
+    /**
+     * Start writing dead letters and reporting counts periodically
+     *
+     * @param deadLetterChannel channel to write dead letters on, null to only count them
+     * @param countsListener receives the counts per reason code and the dropped count whenever they have changed
+     */
+    public synchronized void start(Channel<Message> deadLetterChannel, Consumer<Map<String, Long>> countsListener) {
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fork-dead-letters");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.channel = deadLetterChannel;
+
+        AtomicLong reported = new AtomicLong(-1);
+        flusher.scheduleWithFixedDelay(() -> {
+            flush();
+            long total = total() + dropped.get();
+            if (reported.getAndSet(total) != total)
+                countsListener.accept(counts());
+        }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Record a message that could not be forked
+     *
+     * @param reason why the message could not be forked
+     * @param id id of the incoming message
+     * @param forkChannelName name of the forked channel, null if not known yet
+     * @param message the incoming message
+     */
+    public void record(DeadLetterReason reason, int id, String forkChannelName, BytesMessage message) {
+        counters.get(reason).incrementAndGet();
+        if (channel == null)
+            return;
+
+        boolean full;
+        synchronized (this) {
+            if (buffer.size() >= maxBuffered) {
+                dropped.incrementAndGet();
+                return;
+            }
+            buffer.add(new DeadLetter(reason.code(), id, System.currentTimeMillis(), forkChannelName, message.getBytes()));
+            full = buffer.size() >= batchSize;
+        }
+        if (full)
+            requestFlush();
+    }
+
+    /**
+     * Have the flusher thread write the buffered dead letters, unless a flush is already pending
+     */
+    private void requestFlush() {
+        if (!flushRequested.compareAndSet(false, true))
+            return;
+        try {
+            flusher.execute(() -> {
+                flushRequested.set(false);
+                flush();
+            });
+        } catch (RejectedExecutionException e) {
+            // closing, the remaining dead letters are written by close()
+            flushRequested.set(false);
+        }
+    }
+
+    /**
+     * Write all buffered dead letters to the dead-letter channel, in batches
+     */
+    public void flush() {
+        Channel<Message> deadLetterChannel = channel;
+        if (deadLetterChannel == null)
+            return;
+
+        List<DeadLetter> pending;
+        synchronized (this) {
+            if (buffer.isEmpty())
+                return;
+            pending = buffer;
+            buffer = new ArrayList<>(batchSize);
+        }
+
+        for (int start = 0; start < pending.size(); start += batchSize) {
+            List<DeadLetter> batch = pending.subList(start, Math.min(start + batchSize, pending.size()));
+            try {
+                deadLetterChannel.publish(new BytesMessage(MAPPER.writeValueAsBytes(batch)));
+            } catch (ChannelIOException | JsonProcessingException e) {
+                dropped.addAndGet(batch.size());
+                LOGGER.warn("Failed to write {} dead letters to channel {}", batch.size(), deadLetterChannel.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * @return number of dead letters per reason code, followed by the number of dropped dead letters under
+     * {@code dropped}
+     */
+    public Map<String, Long> counts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        counters.forEach((reason, count) -> counts.put(reason.code(), count.get()));
+        counts.put(DROPPED, dropped.get());
+        return counts;
+    }
+
+    /**
+     * @param reason reason of the dead letters
+     * @return number of dead letters recorded for the reason
+     */
+    public long count(DeadLetterReason reason) {
+        return counters.get(reason).get();
+    }
+
+    /**
+     * @return number of dead letters that were counted but could not be written to the dead-letter channel
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    private long total() {
+        return counters.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+
+    /**
+     * Stop the periodic flush and write the remaining dead letters
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (flusher != null)
+                flusher.shutdownNow();
+        }
+        flush();
+    }
+
+    /**
+     * Entry written to the dead-letter channel
+     */
+    public static class DeadLetter {
+        private final String reason;
+        private final int id;
+        private final long timestamp;
+        private final String channel;
+        private final byte[] message;
+
+        DeadLetter(String reason, int id, long timestamp, String channel, byte[] message) {
+            this.reason = reason;
+            this.id = id;
+            this.timestamp = timestamp;
+            this.channel = channel;
+            this.message = message;
+        }
+
+        /**
+         * @return reason code, see {@link DeadLetterReason#code()}
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        /**
+         * @return id of the incoming message
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * @return time the message was recorded, in milliseconds since the epoch
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return name of the forked channel, null if the message failed before it was known
+         */
+        public String getChannel() {
+            return channel;
+        }
+
+        /**
+         * @return bytes of the incoming message, Base64 encoded in JSON
+         */
+        public byte[] getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intel.icecp.module.fork;
+
+/**
+ * Reasons for which an incoming message could not be forked, each with the compact code written to the dead-letter
+ * channel and used as key of the dead-letter counters
+ *
+ */
+public enum DeadLetterReason {
+    /** the incoming message could not be decoded as an MQTT message */
+    MALFORMED_MESSAGE("malformed"),
+    /** the MQTT payload is not valid JSON */
+    MALFORMED_PAYLOAD("malformed-payload"),
+    /** the payload does not contain the path of the message-filter */
+    MISSING_FILTER_PATH("missing-path"),
+    /** the message-filter selected an empty value */
+    EMPTY_KEY("empty-key"),
+    /** the message-filter selected a value that is not a string, such as an object, array or number */
+    INVALID_KEY("invalid-key"),
+    /** the forked channel could not be opened */
+    OPEN_FAILED("open-failed"),
+    /** publishing on the forked channel failed */
+    PUBLISH_FAILED("publish-failed"),
+    /** the priority lane of the message was full */
+    SHED("shed"),
+    /** the message was still queued on its priority lane or publish window when the module stopped */
+    DISCARDED("discarded"),
+    /** the publish window of the forked channel was full */
+    WINDOW_FULL("window-full");
+
+    private final String code;
+
+    DeadLetterReason(String code) {
+        this.code = code;
+    }
+
+    /**
+     * @return compact code of the reason
+     */
+    public String code() {
+        return code;
+    }
+}
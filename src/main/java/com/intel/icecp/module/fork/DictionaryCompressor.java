@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intel.icecp.module.fork;
+
+import com.intel.icecp.core.messages.BytesMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ * Compresses forked payloads with DEFLATE using a preset dictionary shared between the fork module and the consumers
+ * of the forked channels. Sensor messages are small and highly repetitive, so compressing each one on its own gains
+ * little; priming the compressor with a dictionary trained from sampled MQTT payloads (see
+ * {@link #train(Collection, int)}) lets even a single payload reference the common JSON structure. The fork module
+ * compresses the MQTT payload, not the serialized MQTT message around it, so the dictionary must be trained from
+ * payloads too.
+ *
+ * <p>
+ * Compression is thread-safe without a shared lock: every compressing thread uses its own {@link Deflater}, all of
+ * which are released by {@link #close()}.
+ *
+ * <p>
+ * The output is a standard zlib stream; its header carries the Adler-32 checksum of the dictionary so that
+ * {@link #decompress(byte[])} can detect payloads compressed with a different dictionary, and consumers can tell
+ * compressed from plain payloads on the same channel with {@link #isCompressed(byte[])}.
+ *
+ */
+public class DictionaryCompressor implements AutoCloseable {
+    // length of the byte sequences counted while training a dictionary
+    private static final int GRAM_LENGTH = 8;
+    private static final int BUFFER_SIZE = 4096;
+    // zlib header: CMF of DEFLATE with a 32K window, FLG bit set when a preset dictionary id follows
+    private static final int ZLIB_CMF = 0x78;
+    private static final int ZLIB_FDICT = 0x20;
+    private static final int ZLIB_HEADER_LENGTH = 6;
+
+    private final byte[] dictionary;
+    private final int dictionaryId;
+    private final ThreadLocal<DeflaterState> deflaters;
+    private final Queue<DeflaterState> allDeflaters = new ConcurrentLinkedQueue<>();
+    private final Inflater inflater;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+
+    /**
+     * Constructor using the best compression level
+     *
+     * @param dictionary preset dictionary shared with the consumers
+     */
+    public DictionaryCompressor(byte[] dictionary) {
+        this(dictionary, Deflater.BEST_COMPRESSION);
+    }
+
+    /**
+     * Constructor with compression level
+     *
+     * @param dictionary preset dictionary shared with the consumers
+     * @param level DEFLATE compression level, see {@link Deflater}
+     */
+    public DictionaryCompressor(byte[] dictionary, int level) {
+        if (dictionary == null || dictionary.length == 0)
+            throw new IllegalArgumentException("Compression dictionary must not be empty");
+        this.dictionary = dictionary.clone();
+        Adler32 adler = new Adler32();
+        adler.update(this.dictionary);
+        this.dictionaryId = (int) adler.getValue();
+        this.deflaters = ThreadLocal.withInitial(() -> {
+            DeflaterState state = new DeflaterState(new Deflater(level));
+            allDeflaters.add(state);
+            return state;
+        });
+        this.inflater = new Inflater();
+    }
+
+    /**
+     * Compress the bytes of a message
+     *
+     * @param message message to compress
+     * @return new message holding the compressed bytes
+     */
+    public BytesMessage compress(BytesMessage message) {
+        return new BytesMessage(compress(message.getBytes()));
+    }
+
+    /**
+     * Compress bytes with the preset dictionary
+     *
+     * @param data uncompressed bytes
+     * @return zlib stream referencing the preset dictionary
+     */
+    public byte[] compress(byte[] data) {
+        DeflaterState state = deflaters.get();
+        Deflater deflater = state.deflater;
+        deflater.reset();
+        deflater.setDictionary(dictionary);
+        deflater.setInput(data);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+        while (!deflater.finished()) {
+            int length = deflater.deflate(state.buffer);
+            out.write(state.buffer, 0, length);
+        }
+
+        uncompressedBytes.add(data.length);
+        compressedBytes.add(out.size());
+        return out.toByteArray();
+    }
+
+    /**
+     * Check if bytes are a payload compressed with this dictionary: a zlib header with the preset dictionary flag set
+     * and the Adler-32 checksum of this dictionary. Plain JSON payloads never start with such a header.
+     *
+     * @param data payload bytes
+     * @return true if the payload was produced by {@link #compress(byte[])} with the same dictionary
+     */
+    public boolean isCompressed(byte[] data) {
+        if (data == null || data.length < ZLIB_HEADER_LENGTH)
+            return false;
+        int cmf = data[0] & 0xff;
+        int flg = data[1] & 0xff;
+        if (cmf != ZLIB_CMF || (flg & ZLIB_FDICT) == 0 || (cmf * 256 + flg) % 31 != 0)
+            return false;
+        int id = (data[2] & 0xff) << 24 | (data[3] & 0xff) << 16 | (data[4] & 0xff) << 8 | data[5] & 0xff;
+        return id == dictionaryId;
+    }
+
+    /**
+     * Decompress the bytes of a message, the counterpart of {@link #compress(BytesMessage)} for consumers
+     *
+     * @param message compressed message
+     * @return new message holding the original bytes
+     * @throws DataFormatException if the message is not a valid stream for this dictionary
+     */
+    public BytesMessage decompress(BytesMessage message) throws DataFormatException {
+        return new BytesMessage(decompress(message.getBytes()));
+    }
+
+    /**
+     * Decompress bytes produced by {@link #compress(byte[])} with the same dictionary
+     *
+     * @param data compressed bytes
+     * @return original bytes
+     * @throws DataFormatException if the data is truncated, corrupt or was compressed with another dictionary
+     */
+    public synchronized byte[] decompress(byte[] data) throws DataFormatException {
+        inflater.reset();
+        inflater.setInput(data);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+        while (!inflater.finished()) {
+            int length = inflater.inflate(buffer);
+            if (length == 0) {
+                if (inflater.needsDictionary()) {
+                    if (inflater.getAdler() != dictionaryId)
+                        throw new DataFormatException("Payload was compressed with a different dictionary");
+                    inflater.setDictionary(dictionary);
+                } else if (inflater.needsInput()) {
+                    throw new DataFormatException("Compressed payload is truncated");
+                }
+            }
+            out.write(buffer, 0, length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return ratio of uncompressed to compressed bytes over all calls to {@link #compress(byte[])}, or 1.0 if nothing
+     * has been compressed yet
+     */
+    public double compressionRatio() {
+        long compressed = compressedBytes.sum();
+        return compressed == 0 ? 1.0 : (double) uncompressedBytes.sum() / compressed;
+    }
+
+    /**
+     * @return a copy of the preset dictionary
+     */
+    public byte[] dictionary() {
+        return dictionary.clone();
+    }
+
+    /**
+     * Train a preset dictionary from sampled MQTT payloads, i.e. the sensor JSON the message-filter is applied to. Runs of byte sequences shared by several samples are collected
+     * as segments and ranked by how much of the sampled traffic they cover; the highest ranked segments are placed at
+     * the end of the dictionary, where DEFLATE can reference them with the shortest distances.
+     *
+     * @param samples sampled MQTT payloads
+     * @param maxSize upper bound of the dictionary size in bytes
+     * @return trained dictionary, empty if the samples share no content
+     */
+    public static byte[] train(Collection<byte[]> samples, int maxSize) {
+        List<String> texts = samples.stream()
+                .map(sample -> new String(sample, StandardCharsets.ISO_8859_1))
+                .collect(Collectors.toList());
+
+        // count in how many samples each sequence occurs
+        Map<String, Integer> counts = new HashMap<>();
+        for (String text : texts) {
+            Set<String> grams = new HashSet<>();
+            for (int i = 0; i + GRAM_LENGTH <= text.length(); i++)
+                grams.add(text.substring(i, i + GRAM_LENGTH));
+            grams.forEach(gram -> counts.merge(gram, 1, Integer::sum));
+        }
+
+        // collect runs of shared sequences as segments, scored by the number of samples covered per byte
+        Map<String, Integer> scores = new HashMap<>();
+        for (String text : texts) {
+            int runStart = -1;
+            int score = 0;
+            for (int i = 0; i + GRAM_LENGTH <= text.length() + 1; i++) {
+                int count = i + GRAM_LENGTH <= text.length() ? counts.get(text.substring(i, i + GRAM_LENGTH)) : 0;
+                if (count > 1) {
+                    if (runStart < 0)
+                        runStart = i;
+                    score += count;
+                } else if (runStart >= 0) {
+                    scores.merge(text.substring(runStart, i - 1 + GRAM_LENGTH), score, Math::max);
+                    runStart = -1;
+                    score = 0;
+                }
+            }
+        }
+
+        List<String> ranked = scores.entrySet().stream()
+                .sorted((a, b) -> b.getValue().compareTo(a.getValue()))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+
+        List<String> selected = new ArrayList<>();
+        int size = 0;
+        for (String segment : ranked) {
+            if (size + segment.length() > maxSize || selected.stream().anyMatch(s -> s.contains(segment)))
+                continue;
+            selected.add(segment);
+            size += segment.length();
+        }
+
+        StringBuilder dictionary = new StringBuilder(size);
+        for (int i = selected.size() - 1; i >= 0; i--)
+            dictionary.append(selected.get(i));
+        return dictionary.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public void close() {
+        DeflaterState state;
+        while ((state = allDeflaters.poll()) != null)
+            state.deflater.end();
+        synchronized (this) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Deflater of one compressing thread, with its output buffer
+     */
+    private static class DeflaterState {
+        private final Deflater deflater;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        private DeflaterState(Deflater deflater) {
+            this.deflater = deflater;
+        }
+    }
+}
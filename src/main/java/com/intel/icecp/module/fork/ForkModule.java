@@ -15,6 +15,7 @@
  */
 package com.intel.icecp.module.fork;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.intel.icecp.core.Channel;
 import com.intel.icecp.core.Message;
@@ -32,10 +33,30 @@ import com.intel.icecp.core.misc.ChannelLifetimeException;
 import com.intel.icecp.core.misc.Configuration;
 import com.intel.icecp.core.misc.OnPublish;
 import com.intel.icecp.core.modules.ModuleProperty;
+import com.intel.icecp.module.fork.attributes.AggregationMaxKeysAttribute;
+import com.intel.icecp.module.fork.attributes.AggregationPathsAttribute;
+import com.intel.icecp.module.fork.attributes.AggregationWindowsAttribute;
+import com.intel.icecp.module.fork.attributes.ClusterMemberIdAttribute;
+import com.intel.icecp.module.fork.attributes.ClusterMembersAttribute;
+import com.intel.icecp.module.fork.attributes.CompressionDictionaryAttribute;
+import com.intel.icecp.module.fork.attributes.CompressionRatioAttribute;
+import com.intel.icecp.module.fork.attributes.DeadLetterChannelAttribute;
+import com.intel.icecp.module.fork.attributes.DeadLetterCountsAttribute;
+import com.intel.icecp.module.fork.attributes.DefaultChannelLanesAttribute;
 import com.intel.icecp.module.fork.attributes.ForkedChannelsAttribute;
+import com.intel.icecp.module.fork.attributes.HeavyHittersAttribute;
 import com.intel.icecp.module.fork.attributes.IncomingChannelAttribute;
 import com.intel.icecp.module.fork.attributes.MessageFilterAttribute;
+import com.intel.icecp.module.fork.attributes.PersistenceRulesAttribute;
+import com.intel.icecp.module.fork.attributes.PriorityClassesAttribute;
+import com.intel.icecp.module.fork.attributes.PrioritySchedulingAttribute;
+import com.intel.icecp.module.fork.attributes.PublishWindowAttribute;
+import com.intel.icecp.module.fork.attributes.PublishWindowSaturationAttribute;
+import com.intel.icecp.module.fork.attributes.ShedMessagesAttribute;
 import com.intel.icecp.node.utils.ChannelUtils;
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.InvalidJsonException;
+import com.jayway.jsonpath.InvalidPathException;
 import com.jayway.jsonpath.JsonPath;
 import com.jayway.jsonpath.PathNotFoundException;
 import org.apache.logging.log4j.LogManager;
@@ -45,11 +66,17 @@ import org.eclipse.paho.client.mqttv3.MqttMessage;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -66,21 +93,68 @@ import java.util.concurrent.atomic.AtomicInteger;
  *     The resulting forked channel will have the format {@code ndn:/test-fork/sensorId1234}
  *
  */
-@ModuleProperty(name = "ForkModule", attributes = {IncomingChannelAttribute.class, MessageFilterAttribute.class, ForkedChannelsAttribute.class})
+@ModuleProperty(name = "ForkModule", attributes = {IncomingChannelAttribute.class, MessageFilterAttribute.class, ForkedChannelsAttribute.class,
+        CompressionDictionaryAttribute.class, CompressionRatioAttribute.class, PriorityClassesAttribute.class,
+        PrioritySchedulingAttribute.class, ShedMessagesAttribute.class, PublishWindowAttribute.class,
+        PublishWindowSaturationAttribute.class, DeadLetterChannelAttribute.class, DeadLetterCountsAttribute.class,
+        HeavyHittersAttribute.class, ClusterMembersAttribute.class, ClusterMemberIdAttribute.class,
+        PersistenceRulesAttribute.class, DefaultChannelLanesAttribute.class, AggregationPathsAttribute.class,
+        AggregationWindowsAttribute.class, AggregationMaxKeysAttribute.class})
 public class ForkModule implements Module {
     private static final Logger LOGGER = LogManager.getLogger();
     // default channel to publish messages on, if no message-filter has been configured
     private static final String DEFAULT_FORKED_CHANNEL_NAME = "/DEFAULT-DATA";
-    static Channel<Message> defaultChannel;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final long HOUSEKEEPING_INTERVAL_MS = 1000;
+    private static final int DEAD_LETTER_BATCH_SIZE = 64;
+    private static final int DEAD_LETTER_MAX_BUFFERED = 4096;
+    private static final long DEAD_LETTER_FLUSH_INTERVAL_MS = 1000;
+    private static final int HEAVY_HITTERS = 20;
+    private static final int HEAVY_HITTER_SKETCH_WIDTH = 2048;
+    private static final long HEAVY_HITTER_WINDOW_MS = 60000;
+    private static final int CLUSTER_VIRTUAL_NODES = 160;
+    private static final long CLUSTER_MEMBERSHIP_CHECK_INTERVAL_MS = 1000;
+    private static final String DEFAULT_AGGREGATION_WINDOWS = "1m";
+    private static final int DEFAULT_AGGREGATION_MAX_KEYS = 1024;
     private final CountDownLatch stopLatch = new CountDownLatch(1);
 
     private Node node;
+    // refreshes the statistics attributes periodically, so they do not go stale when traffic stops
+    private ScheduledExecutorService housekeeping;
     private Channel<BytesMessage> incomingDataChannel;
     private Attributes attributes;
     private ForkedChannelsAttribute forkedChannelAttribute;
+    // lanes of the default channel, opened at startup if no message-filter has been configured
+    volatile Channel<Message>[] defaultChannels;
+    // fixed-memory summary of the fork keys dominating the traffic
+    private final HeavyHitterSketch heavyHitters;
+    private HeavyHittersAttribute heavyHittersAttribute;
+    // compresses forked payloads, null if no compression-dictionary has been configured
+    private DictionaryCompressor compressor;
+    private CompressionRatioAttribute compressionRatioAttribute;
+    // priority lanes in front of forked publishing, null if no priority-classes have been configured
+    private List<PriorityClass> priorityClasses;
+    private PriorityScheduler scheduler;
+    private ShedMessagesAttribute shedMessagesAttribute;
+    // asynchronous publishing on the forked channels, null if no publish-window has been configured
+    private PublishPipeline publishPipeline;
+    private PublishWindowSaturationAttribute publishWindowSaturationAttribute;
+    // counts messages that could not be forked and writes them to the dead-letter channel, if configured
+    final DeadLetterQueue deadLetters;
+    private Channel<Message> deadLetterChannel;
+    // consistent-hash ring of the cluster, null unless a cluster-member-id has been configured
+    private ConsistentHashRing clusterRing;
+    private String clusterMemberId;
+    private volatile String clusterMembers;
+    private volatile long lastMembershipCheck;
+    // persistence of the forked channels by fork key, default persistence unless persistence-rules are configured
+    volatile PersistencePolicy persistencePolicy;
+    // windowed per-key aggregates of numeric fields, null if no aggregation-paths have been configured
+    private WindowedAggregator aggregator;
+    private ScheduledExecutorService aggregationTicker;
     // set holding all the newly created channels
     private final Set<String> forkChannelSet;
-    // internal map for maintaining the channels and closing them during module unload
+    // internal map for maintaining the channels and closing them during module unload, shared with the aggregation ticker
     private final Map<String, Channel<Message>> channels;
 
     /**
@@ -89,7 +163,10 @@ public class ForkModule implements Module {
      */
     public ForkModule() {
         forkChannelSet = new TreeSet<>();
-        channels = new HashMap<>();
+        channels = new ConcurrentHashMap<>();
+        deadLetters = new DeadLetterQueue(DEAD_LETTER_BATCH_SIZE, DEAD_LETTER_MAX_BUFFERED, DEAD_LETTER_FLUSH_INTERVAL_MS);
+        heavyHitters = new HeavyHitterSketch(HEAVY_HITTERS, HEAVY_HITTER_SKETCH_WIDTH, HEAVY_HITTER_WINDOW_MS);
+        persistencePolicy = PersistencePolicy.defaultPolicy();
     }
 
     /**
@@ -108,10 +185,48 @@ public class ForkModule implements Module {
         this.attributes = attributes;
 
         try {
+            housekeeping = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "fork-housekeeping");
+                thread.setDaemon(true);
+                return thread;
+            });
+
             // register the forked channel attribute
             this.forkedChannelAttribute = new ForkedChannelsAttribute();
             this.attributes.add(forkedChannelAttribute);
 
+            // register the heavy hitters attribute
+            this.heavyHittersAttribute = new HeavyHittersAttribute();
+            this.attributes.add(heavyHittersAttribute);
+            scheduleHousekeeping("heavy-hitters", () -> {
+                if (heavyHitters.expire(System.currentTimeMillis()))
+                    heavyHittersAttribute.value(heavyHitters.heavyHitters());
+            });
+
+            // set up optional compression of the forked payloads
+            setupCompression(getOptionalAttribute(CompressionDictionaryAttribute.COMPRESSION_DICTIONARY, String.class, null));
+
+            // set up optional priority lanes in front of forked publishing
+            setupPriorityLanes(getOptionalAttribute(PriorityClassesAttribute.PRIORITY_CLASSES, String.class, null),
+                    getOptionalAttribute(PrioritySchedulingAttribute.PRIORITY_SCHEDULING, String.class, PriorityScheduler.Mode.WEIGHTED.name()));
+
+            // set up optional asynchronous publishing on the forked channels
+            setupPublishPipeline(getOptionalAttribute(PublishWindowAttribute.PUBLISH_WINDOW, Integer.class, 0));
+
+            // set up counting of messages that could not be forked, and the optional dead-letter channel
+            setupDeadLetters(getOptionalAttribute(DeadLetterChannelAttribute.DEAD_LETTER_CHANNEL, String.class, null));
+
+            // set up optional cluster mode, forking only the keys this member owns
+            setupCluster(getOptionalAttribute(ClusterMemberIdAttribute.CLUSTER_MEMBER_ID, String.class, null));
+
+            // choose the persistence of the forked channels by fork key
+            setupPersistence(getOptionalAttribute(PersistenceRulesAttribute.PERSISTENCE_RULES, String.class, null));
+
+            // set up optional windowed aggregation of numeric fields per fork key
+            setupAggregation(getOptionalAttribute(AggregationPathsAttribute.AGGREGATION_PATHS, String.class, null),
+                    getOptionalAttribute(AggregationWindowsAttribute.AGGREGATION_WINDOWS, String.class, DEFAULT_AGGREGATION_WINDOWS),
+                    getOptionalAttribute(AggregationMaxKeysAttribute.AGGREGATION_MAX_KEYS, Integer.class, DEFAULT_AGGREGATION_MAX_KEYS));
+
             // open incoming data channel
             final URI incomingChannel = ChannelUtils.join(node.getDefaultUri(), attributes.get(IncomingChannelAttribute.INCOMING_CHANNEL, String.class));
             LOGGER.info("Incoming channel name is: {}", incomingChannel);
@@ -121,6 +236,8 @@ public class ForkModule implements Module {
             // set up callback for incoming messages and fetch message-filter attribute
             LOGGER.info("Set up callback for: {}", incomingChannel);
             final String messageFilter = attributes.get(MessageFilterAttribute.MESSAGE_FILTER, String.class);
+            if (messageFilter == null || messageFilter.isEmpty())
+                setupDefaultChannels(getOptionalAttribute(DefaultChannelLanesAttribute.DEFAULT_CHANNEL_LANES, Integer.class, 1));
             IncomingMessageCallback incomingMessageCallback = new IncomingMessageCallback(incomingChannel, messageFilter);
             incomingDataChannel.subscribe(incomingMessageCallback);
             LOGGER.info("Callback setup success. Channel {} is now waiting for messages", incomingChannel);
@@ -135,15 +252,267 @@ public class ForkModule implements Module {
             setAttribute(ModuleStateAttribute.class, State.ERROR);
         } catch (AttributeNotFoundException | AttributeNotWriteableException | AttributeRegistrationException e) {
             LOGGER.error("Error on attributes", e);
+        } catch (IllegalArgumentException | InvalidPathException e) {
+            LOGGER.error("Invalid module configuration", e);
+            setAttribute(ModuleStateAttribute.class, State.ERROR);
         } finally {
             closeAllChannels();
         }
     }
 
+    /**
+     * Private method to open the default channel lanes on which messages are passed through when no message-filter
+     * has been configured
+     *
+     * @param lanes number of default channels to spread the messages over
+     * @throws ChannelLifetimeException failure to open a default channel
+     * @throws IllegalArgumentException if the number of lanes is not positive
+     */
+    @SuppressWarnings("unchecked")
+    private void setupDefaultChannels(int lanes) throws ChannelLifetimeException {
+        if (lanes < 1)
+            throw new IllegalArgumentException("Number of default channel lanes must be positive: " + lanes);
+
+        Channel<Message>[] opened = new Channel[lanes];
+        for (int lane = 0; lane < lanes; lane++) {
+            String name = lane == 0 ? DEFAULT_FORKED_CHANNEL_NAME : DEFAULT_FORKED_CHANNEL_NAME + "-" + lane;
+            opened[lane] = node.openChannel(ChannelUtils.join(node.getDefaultUri(), name), Message.class, new Persistence());
+        }
+        defaultChannels = opened;
+        LOGGER.info("No message-filter found, passing messages through on {} default channel(s): {}", lanes, DEFAULT_FORKED_CHANNEL_NAME);
+    }
+
+    /**
+     * Private method to enable compression of the forked payloads with a preset dictionary; the MQTT payload is
+     * compressed and published in the usual MQTT message
+     *
+     * @param dictionary Base64 encoded dictionary, compression stays disabled if null or empty
+     * @throws AttributeRegistrationException failure to register the compression-ratio attribute
+     */
+    private void setupCompression(String dictionary) throws AttributeRegistrationException {
+        if (dictionary == null || dictionary.isEmpty())
+            return;
+
+        try {
+            compressor = new DictionaryCompressor(Base64.getDecoder().decode(dictionary));
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Invalid compression dictionary, forked payloads will not be compressed", e);
+            return;
+        }
+        compressionRatioAttribute = new CompressionRatioAttribute();
+        attributes.add(compressionRatioAttribute);
+        scheduleHousekeeping("compression-ratio", () -> compressionRatioAttribute.value(compressor.compressionRatio()));
+        LOGGER.info("Compressing forked payloads with a {} byte dictionary", compressor.dictionary().length);
+    }
+
+    /**
+     * Private method to start the priority scheduler in front of forked publishing
+     *
+     * @param specification configured priority classes, the scheduler is not used if null or empty
+     * @param scheduling name of the {@link PriorityScheduler.Mode} serving the lanes
+     * @throws AttributeRegistrationException failure to register the shed-messages attribute
+     * @throws IllegalArgumentException invalid priority classes or scheduling mode
+     */
+    private void setupPriorityLanes(String specification, String scheduling) throws AttributeRegistrationException {
+        if (specification == null || specification.trim().isEmpty())
+            return;
+
+        PriorityScheduler.Mode mode = PriorityScheduler.Mode.valueOf(scheduling.trim().toUpperCase());
+        priorityClasses = PriorityClass.parse(specification);
+        shedMessagesAttribute = new ShedMessagesAttribute();
+        attributes.add(shedMessagesAttribute);
+        scheduler = new PriorityScheduler(priorityClasses, mode);
+        scheduleHousekeeping("shed-messages", () -> shedMessagesAttribute.value(scheduler.shedCounts()));
+        LOGGER.info("Scheduling forked publishing over {} priority lanes, mode: {}", priorityClasses.size(), mode);
+    }
+
+    /**
+     * Private method to run a task periodically on the housekeeping thread; failures are logged and do not cancel
+     * the task
+     *
+     * @param name name of the task for the log
+     * @param task task to run
+     */
+    private void scheduleHousekeeping(String name, Runnable task) {
+        housekeeping.scheduleWithFixedDelay(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOGGER.error("Housekeeping task {} failed", name, e);
+            }
+        }, HOUSEKEEPING_INTERVAL_MS, HOUSEKEEPING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Private method to start the asynchronous publish pipeline of the forked channels
+     *
+     * @param window maximum number of queued or in-flight publishes per forked channel, publishing stays synchronous
+     *               if not positive
+     * @throws AttributeRegistrationException failure to register the publish-window-saturation attribute
+     */
+    private void setupPublishPipeline(int window) throws AttributeRegistrationException {
+        if (window <= 0)
+            return;
+
+        publishWindowSaturationAttribute = new PublishWindowSaturationAttribute();
+        attributes.add(publishWindowSaturationAttribute);
+        publishPipeline = new PublishPipeline(window, Runtime.getRuntime().availableProcessors());
+        scheduleHousekeeping("publish-window-saturation", () -> publishWindowSaturationAttribute.value(publishPipeline.saturation()));
+        LOGGER.info("Publishing asynchronously on forked channels with a window of {}", window);
+    }
+
+    /**
+     * Private method to start counting messages that could not be forked, writing them to a dead-letter channel
+     *
+     * @param deadLetterChannelName name of the dead-letter channel relative to the node URI, the messages are only
+     *                              counted if null or empty
+     * @throws AttributeRegistrationException failure to register the dead-letter-counts attribute
+     * @throws ChannelLifetimeException failure to open the dead-letter channel
+     */
+    private void setupDeadLetters(String deadLetterChannelName) throws AttributeRegistrationException, ChannelLifetimeException {
+        DeadLetterCountsAttribute deadLetterCountsAttribute = new DeadLetterCountsAttribute();
+        attributes.add(deadLetterCountsAttribute);
+
+        if (deadLetterChannelName != null && !deadLetterChannelName.isEmpty()) {
+            final URI deadLetterUri = ChannelUtils.join(node.getDefaultUri(), deadLetterChannelName);
+            deadLetterChannel = node.openChannel(deadLetterUri, Message.class, new Persistence());
+            LOGGER.info("Dead-letter channel name is: {}", deadLetterUri);
+        }
+        deadLetters.start(deadLetterChannel, deadLetterCountsAttribute::value);
+    }
+
+    /**
+     * Private method to enable cluster mode, in which only the keys assigned to this member are forked
+     *
+     * @param memberId id of this member, cluster mode stays disabled if null or empty
+     */
+    private void setupCluster(String memberId) {
+        if (memberId == null || memberId.trim().isEmpty())
+            return;
+
+        clusterMemberId = memberId.trim();
+        clusterRing = new ConsistentHashRing(CLUSTER_VIRTUAL_NODES);
+        refreshClusterMembership(true);
+        if (!clusterRing.members().contains(clusterMemberId))
+            LOGGER.warn("Cluster member {} is not in {}, no keys will be forked", clusterMemberId, clusterRing.members());
+        LOGGER.info("Cluster mode enabled for member {} of {}", clusterMemberId, clusterRing.members());
+    }
+
+    /**
+     * Private method to configure the persistence of the forked channels per fork key pattern
+     *
+     * @param rules configured persistence rules, every forked channel gets the default persistence if null or empty
+     * @throws IllegalArgumentException invalid persistence rules
+     */
+    private void setupPersistence(String rules) {
+        if (rules == null || rules.trim().isEmpty())
+            return;
+
+        persistencePolicy = PersistencePolicy.parse(rules);
+        LOGGER.info("Forked channel persistence rules: {}", rules);
+    }
+
+    /**
+     * Private method to start aggregating numeric fields per fork key, publishing the aggregates of every closed
+     * window on {@code <fork channel>/agg/<window>}
+     *
+     * @param paths comma separated JsonPaths of the fields, aggregation stays disabled if null or empty
+     * @param windows comma separated tumbling or sliding windows
+     * @param maxKeys maximum number of keys aggregated at a time
+     * @throws IllegalArgumentException invalid paths, windows or maximum number of keys
+     */
+    private void setupAggregation(String paths, String windows, int maxKeys) {
+        if (paths == null || paths.trim().isEmpty())
+            return;
+
+        aggregator = new WindowedAggregator(WindowedAggregator.parsePaths(paths), WindowedAggregator.parseWindows(windows), maxKeys);
+        aggregationTicker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fork-aggregation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        aggregationTicker.scheduleWithFixedDelay(this::publishAggregates, WindowedAggregator.TICK_INTERVAL_MS,
+                WindowedAggregator.TICK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        LOGGER.info("Aggregating {} over windows {} for at most {} keys", paths, windows, maxKeys);
+    }
+
+    /**
+     * Private method run by the aggregation ticker to publish the aggregates of the windows closed since the last
+     * tick, opening the aggregate channels if needed. Every failure is logged here: an exception escaping the task
+     * would silently cancel all further ticks.
+     */
+    private void publishAggregates() {
+        List<WindowedAggregator.WindowAggregate> aggregates;
+        try {
+            aggregates = aggregator.tick(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to close aggregation windows", e);
+            return;
+        }
+        for (WindowedAggregator.WindowAggregate aggregate : aggregates) {
+            try {
+                Channel<Message> aggregateChannel = channels.get(aggregate.channel());
+                if (aggregateChannel == null) {
+                    aggregateChannel = node.openChannel(new URI(aggregate.channel()), Message.class, persistencePolicy.forKey(aggregate.getKey()));
+                    channels.put(aggregate.channel(), aggregateChannel);
+                }
+                aggregateChannel.publish(new BytesMessage(MAPPER.writeValueAsBytes(aggregate)));
+            } catch (ChannelLifetimeException | ChannelIOException | URISyntaxException | JsonProcessingException e) {
+                LOGGER.warn("Failed to publish aggregate on channel {}", aggregate.channel(), e);
+            } catch (RuntimeException e) {
+                LOGGER.error("Unexpected failure publishing aggregate on channel {}", aggregate.channel(), e);
+            }
+        }
+    }
+
+    /**
+     * Private method to rebuild the cluster ring if the cluster-members attribute has changed, checked at most once
+     * per interval unless forced
+     *
+     * @param force check regardless of the interval
+     */
+    private void refreshClusterMembership(boolean force) {
+        long now = System.currentTimeMillis();
+        if (!force && now - lastMembershipCheck < CLUSTER_MEMBERSHIP_CHECK_INTERVAL_MS)
+            return;
+        lastMembershipCheck = now;
+
+        String members = getOptionalAttribute(ClusterMembersAttribute.CLUSTER_MEMBERS, String.class, "");
+        if (!members.equals(clusterMembers)) {
+            clusterMembers = members;
+            clusterRing.setMembers(ConsistentHashRing.parseMembers(members));
+            LOGGER.info("Cluster members changed to {}", clusterRing.members());
+        }
+    }
+
     private void closeAllChannels() {
+        // stop forked publishing and aggregation before closing the channels they publish on
+        if (housekeeping != null)
+            housekeeping.shutdownNow();
+        if (aggregationTicker != null)
+            aggregationTicker.shutdownNow();
+        if (scheduler != null)
+            scheduler.close();
+        if (publishPipeline != null)
+            publishPipeline.close();
+        deadLetters.close();
+        closeChannel(deadLetterChannel);
         closeAllForkedChannels();
-        closeChannel(defaultChannel);
+        closeDefaultChannels();
         closeChannel(incomingDataChannel);
+        if (compressor != null)
+            compressor.close();
+    }
+
+    /**
+     * Private method to close the default channel lanes
+     */
+    private void closeDefaultChannels() {
+        Channel<Message>[] lanes = defaultChannels;
+        if (lanes != null) {
+            for (Channel<Message> lane : lanes)
+                closeChannel(lane);
+        }
     }
 
     /**
@@ -177,88 +546,261 @@ public class ForkModule implements Module {
         private final AtomicInteger counter = new AtomicInteger(0);
         private final URI incomingChannel;
         private final String messageFilter;
+        // message filter compiled once, null if no message filter has been configured
+        private final JsonPath filterPath;
+        // byte-scanning fast path, null if the message filter is not a simple top-level key lookup
+        private final TopLevelKeyScanner keyScanner;
 
 
         /**
          * Constructor with attributes
          *
          * @param messageFilter message filter string
+         * @throws InvalidPathException if the message filter is not a valid JsonPath
          */
         IncomingMessageCallback(final URI incomingChannel, final String messageFilter) {
             this.incomingChannel = incomingChannel;
             this.messageFilter = messageFilter;
+            this.filterPath = messageFilter != null && !messageFilter.isEmpty() ? JsonPath.compile(messageFilter) : null;
+            this.keyScanner = TopLevelKeyScanner.forFilter(messageFilter);
         }
 
         @Override
         public void onPublish(BytesMessage message) {
             int id = counter.incrementAndGet();
-            LOGGER.info("ID: {}, Message received = {} bytes", id, message.getBytes().length);
+            Channel<Message>[] lanes = defaultChannels;
+            if (lanes != null) {
+                publishOnDefaultChannel(id, lanes, message);
+                return;
+            }
+
+            LOGGER.debug("ID: {}, Message received = {} bytes", id, message.getBytes().length);
             if (messageFilter != null && messageFilter.length() > 0) {
                 // convert the BytesMessage into a MqttMessage
-                ObjectMapper mapper = new ObjectMapper();
-                String forkChannelName = null;
                 try {
-                    MqttMessage mqttMessage = mapper.readValue(new String(message.getBytes()), MqttMessage.class);
+                    MqttMessage mqttMessage = MAPPER.readValue(message.getBytes(), MqttMessage.class);
                     LOGGER.debug("ID: {}, Conversion to MQTT message complete", id);
 
-                    // get the sensorId fields from the payload by applying message-filter
-                    String channelSuffix = JsonPath.read(new String(mqttMessage.getPayload()), messageFilter);
+                    // get the sensorId fields from the payload by applying message-filter; the payload is parsed at
+                    // most once, by the JsonPath fallback or else by the aggregation
+                    byte[] payload = mqttMessage.getPayload();
+                    Object document = null;
+                    String channelSuffix = keyScanner != null ? keyScanner.scan(payload) : null;
+                    if (channelSuffix == null) {
+                        document = Configuration.defaultConfiguration().jsonProvider().parse(new String(payload, StandardCharsets.UTF_8));
+                        channelSuffix = readChannelSuffix(document);
+                    }
                     LOGGER.debug("ID: {}, channelSuffix: {} from payLoad", id, channelSuffix);
 
                     // create new channel if already not exists, and then publish the message on the channel
                     if (channelSuffix != null && channelSuffix.length() > 0) {
+                        if (!ownsKey(channelSuffix)) {
+                            LOGGER.debug("ID: {}, Key {} belongs to another cluster member", id, channelSuffix);
+                            return;
+                        }
+                        recordHeavyHitter(channelSuffix, message);
+
                         // construct forked channel URI
-                        forkChannelName = incomingChannel + "/" + channelSuffix;
-                        Channel<Message> forkChannel = getMessageChannel(forkChannelName);
-                        forkChannel.publish(message);
-
-                        forkChannelSet.add(forkChannelName);
-                        // update the attribute with the updated set
-                        forkedChannelAttribute.value(forkChannelSet);
-                        channels.put(forkChannelName, forkChannel);
+                        final String forkChannelName = incomingChannel + "/" + channelSuffix;
+                        if (aggregator != null && document != null)
+                            aggregator.record(channelSuffix, forkChannelName, document, System.currentTimeMillis());
+                        else if (aggregator != null)
+                            aggregator.record(channelSuffix, forkChannelName, payload, System.currentTimeMillis());
+                        if (scheduler != null)
+                            scheduleFork(id, channelSuffix, forkChannelName, message, mqttMessage);
+                        else
+                            forkMessage(id, channelSuffix, forkChannelName, message, mqttMessage);
                     } else {
-                        LOGGER.info("MQTTMessage payload do not contain identifier, filter: {} failed! ", messageFilter);
+                        LOGGER.debug("ID: {}, MQTTMessage payload do not contain identifier, filter: {} failed!", id, messageFilter);
+                        deadLetters.record(DeadLetterReason.EMPTY_KEY, id, null, message);
                     }
                 } catch (IOException e) {
-                    LOGGER.error("ID: {}, Failed to convert to MQTT message", id, e);
-                } catch (ChannelLifetimeException | URISyntaxException e) {
-                    LOGGER.error("ID: {}, Failed to open channel with name {}", id, forkChannelName, e);
-                } catch (ChannelIOException e) {
-                    LOGGER.error("ID: {}, Failed to publish message to the channel!", id, e);
+                    LOGGER.debug("ID: {}, Failed to convert to MQTT message", id, e);
+                    deadLetters.record(DeadLetterReason.MALFORMED_MESSAGE, id, null, message);
                 } catch (PathNotFoundException e) {
-                    LOGGER.error("Missing messageFilter: {} in message: {}", messageFilter, message, e);
+                    LOGGER.debug("ID: {}, Missing messageFilter: {} in message", id, messageFilter);
+                    deadLetters.record(DeadLetterReason.MISSING_FILTER_PATH, id, null, message);
+                } catch (InvalidJsonException e) {
+                    LOGGER.debug("ID: {}, MQTT payload is not valid JSON", id, e);
+                    deadLetters.record(DeadLetterReason.MALFORMED_PAYLOAD, id, null, message);
+                } catch (ClassCastException e) {
+                    LOGGER.debug("ID: {}, messageFilter: {} did not select a string", id, messageFilter, e);
+                    deadLetters.record(DeadLetterReason.INVALID_KEY, id, null, message);
                 }
             } else {
-                LOGGER.info("No message-filter found, publishing on default channel: {}", DEFAULT_FORKED_CHANNEL_NAME);
-                publishOnDefaultChannel(message);
+                LOGGER.error("ID: {}, No message-filter and no default channel, message dropped", id);
+            }
+        }
+
+        /**
+         * Private method to check if this module forks a key; outside cluster mode it forks every key
+         * @param channelSuffix fork key of the message
+         * @return true if the key is assigned to this member of the cluster
+         */
+        private boolean ownsKey(String channelSuffix) {
+            if (clusterRing == null)
+                return true;
+            refreshClusterMembership(false);
+            return clusterMemberId.equals(clusterRing.owner(channelSuffix));
+        }
+
+        /**
+         * Private method to count a message in the heavy hitter summary, publishing the heavy hitters whenever a
+         * window completes
+         * @param channelSuffix fork key of the message
+         * @param message incoming message
+         */
+        private void recordHeavyHitter(String channelSuffix, BytesMessage message) {
+            if (heavyHitters.record(channelSuffix, message.getBytes().length, System.currentTimeMillis()) && heavyHittersAttribute != null)
+                heavyHittersAttribute.value(heavyHitters.heavyHitters());
+        }
+
+        /**
+         * Private method to queue a message on the priority lane of its class, shedding it if the lane is full; a
+         * message still queued when the module stops is recorded as discarded
+         * @param id id of the incoming message
+         * @param channelSuffix fork key of the message
+         * @param forkChannelName name of the forked channel
+         * @param message message to be published
+         * @param mqttMessage the decoded message, whose payload selects the priority class
+         */
+        private void scheduleFork(int id, String channelSuffix, String forkChannelName, BytesMessage message, MqttMessage mqttMessage) {
+            int lane = 0;
+            while (!priorityClasses.get(lane).matches(mqttMessage.getPayload()))
+                lane++;
+
+            if (!scheduler.submit(lane, () -> forkMessage(id, channelSuffix, forkChannelName, message, mqttMessage),
+                    () -> deadLetters.record(DeadLetterReason.DISCARDED, id, forkChannelName, message))) {
+                LOGGER.debug("ID: {}, Priority lane {} is full, message shed", id, priorityClasses.get(lane).name());
+                deadLetters.record(DeadLetterReason.SHED, id, forkChannelName, message);
+            }
+        }
+
+        /**
+         * Private method to publish a message on its forked channel, opening the channel if needed
+         * @param id id of the incoming message
+         * @param channelSuffix fork key of the message
+         * @param forkChannelName name of the forked channel
+         * @param message message to be published
+         * @param mqttMessage the decoded message, whose payload is compressed if a dictionary is configured
+         */
+        private void forkMessage(int id, String channelSuffix, String forkChannelName, BytesMessage message, MqttMessage mqttMessage) {
+            try {
+                Channel<Message> forkChannel = getMessageChannel(channelSuffix, forkChannelName);
+                publishOnForkedChannel(id, forkChannelName, forkChannel, message, mqttMessage);
+
+                forkChannelSet.add(forkChannelName);
+                // update the attribute with the updated set
+                forkedChannelAttribute.value(forkChannelSet);
+                channels.put(forkChannelName, forkChannel);
+            } catch (ChannelLifetimeException | URISyntaxException e) {
+                LOGGER.debug("ID: {}, Failed to open channel with name {}", id, forkChannelName, e);
+                deadLetters.record(DeadLetterReason.OPEN_FAILED, id, forkChannelName, message);
+            } catch (ChannelIOException | JsonProcessingException e) {
+                LOGGER.debug("ID: {}, Failed to publish message to the channel {}", id, forkChannelName, e);
+                deadLetters.record(DeadLetterReason.PUBLISH_FAILED, id, forkChannelName, message);
+            }
+        }
+
+        /**
+         * Private method to apply the message-filter to a parsed payload, for the filters and payloads the
+         * byte-scanning fast path cannot handle
+         * @param document MQTT payload parsed by the default JsonPath provider
+         * @return value selected by the message-filter
+         * @throws PathNotFoundException if the payload does not contain the filtered path
+         * @throws ClassCastException if the message-filter selects a value that is not a string
+         */
+        private String readChannelSuffix(Object document) {
+            Object value = filterPath.read(document);
+            if (value != null && !(value instanceof String))
+                throw new ClassCastException("Selected value is a " + value.getClass().getSimpleName() + ", not a string");
+            return (String) value;
+        }
+
+        /**
+         * Private method to publish a message on a forked channel, compressing its MQTT payload if a dictionary is
+         * configured, and through the publish pipeline if a publish-window is configured
+         * @param id id of the incoming message
+         * @param forkChannelName name of the forked channel
+         * @param forkChannel forked channel to publish on
+         * @param message message to be published
+         * @param mqttMessage the decoded message
+         * @throws ChannelIOException failure to publish the message synchronously
+         * @throws JsonProcessingException failure to serialize the MQTT message with the compressed payload
+         */
+        private void publishOnForkedChannel(int id, String forkChannelName, Channel<Message> forkChannel, BytesMessage message,
+                                            MqttMessage mqttMessage) throws ChannelIOException, JsonProcessingException {
+            Message forkedMessage = compressor != null ? compressPayload(mqttMessage) : message;
+
+            if (publishPipeline == null) {
+                forkChannel.publish(forkedMessage);
+            } else if (!publishPipeline.publish(forkChannelName, forkChannel, forkedMessage,
+                    (name, published, failure, discarded) -> onPublishCompleted(id, name, message, failure, discarded))) {
+                LOGGER.debug("ID: {}, Publish window of {} is full, message dropped", id, forkChannelName);
+                deadLetters.record(DeadLetterReason.WINDOW_FULL, id, forkChannelName, message);
+            }
+        }
+
+        /**
+         * Private method to compress the payload of an MQTT message with the preset dictionary, keeping the message
+         * format so consumers decode forked messages the same way with or without compression
+         * @param mqttMessage the decoded message
+         * @return serialized MQTT message with the compressed payload
+         * @throws JsonProcessingException failure to serialize the MQTT message
+         */
+        private BytesMessage compressPayload(MqttMessage mqttMessage) throws JsonProcessingException {
+            MqttMessage compressed = new MqttMessage(compressor.compress(mqttMessage.getPayload()));
+            compressed.setQos(mqttMessage.getQos());
+            compressed.setRetained(mqttMessage.isRetained());
+            return new BytesMessage(MAPPER.writeValueAsBytes(compressed));
+        }
+
+        /**
+         * Private method called by the publish pipeline once an asynchronous publish has completed
+         * @param id id of the incoming message
+         * @param forkChannelName name of the forked channel
+         * @param message incoming message that was published
+         * @param failure publish failure, null on success
+         * @param discarded true if the message was discarded because the module stopped
+         */
+        private void onPublishCompleted(int id, String forkChannelName, BytesMessage message, ChannelIOException failure, boolean discarded) {
+            if (discarded) {
+                LOGGER.debug("ID: {}, Publish on channel {} discarded on stop", id, forkChannelName);
+                deadLetters.record(DeadLetterReason.DISCARDED, id, forkChannelName, message);
+            } else if (failure != null) {
+                LOGGER.debug("ID: {}, Failed to publish message to the channel {}", id, forkChannelName, failure);
+                deadLetters.record(DeadLetterReason.PUBLISH_FAILED, id, forkChannelName, message);
             }
         }
 
         /**
-         * Private method to check if channel already exists, else open a new one
+         * Private method to check if channel already exists, else open a new one with the persistence the
+         * persistence rules assign to its fork key
+         * @param channelSuffix fork key of the channel
          * @param forkChannelName name of the forked channel
          * @return old forked channel if it already exists, else newly created channel
          * @throws ChannelLifetimeException failure to open channel
          * @throws URISyntaxException incorrect URI of the forked channel
          */
-        private Channel<Message> getMessageChannel(String forkChannelName) throws ChannelLifetimeException, URISyntaxException {
+        private Channel<Message> getMessageChannel(String channelSuffix, String forkChannelName) throws ChannelLifetimeException, URISyntaxException {
            return channels.containsKey(forkChannelName) ? channels.get(forkChannelName)
-                   : node.openChannel(new URI(forkChannelName), Message.class, new Persistence());
+                   : node.openChannel(new URI(forkChannelName), Message.class, persistencePolicy.forKey(channelSuffix));
         }
 
         /**
-         * Private method to publish messages on a default channel
+         * Private method to pass a message through on a default channel, without parsing or locking; with several
+         * lanes the messages are spread round-robin by id
+         * @param id id of the incoming message
+         * @param lanes default channels opened at startup
          * @param message message to be published
          */
-        private synchronized void publishOnDefaultChannel(BytesMessage message) {
-            String defaultChannelName = node.getDefaultUri() + DEFAULT_FORKED_CHANNEL_NAME;
+        private void publishOnDefaultChannel(int id, Channel<Message>[] lanes, BytesMessage message) {
+            Channel<Message> lane = lanes.length == 1 ? lanes[0] : lanes[(id & Integer.MAX_VALUE) % lanes.length];
             try {
-                if (defaultChannel == null) {
-                    defaultChannel = node.openChannel(new URI(defaultChannelName), Message.class, new Persistence());
-                }
-                defaultChannel.publish(message);
-            } catch (ChannelIOException | ChannelLifetimeException | URISyntaxException e) {
-                LOGGER.error("Failed to publish on default channel: {}", defaultChannelName, e);
+                lane.publish(message);
+            } catch (ChannelIOException e) {
+                LOGGER.debug("ID: {}, Failed to publish on default channel: {}", id, lane.getName(), e);
+                deadLetters.record(DeadLetterReason.PUBLISH_FAILED, id, String.valueOf(lane.getName()), message);
             }
         }
     }
@@ -279,6 +821,27 @@ public class ForkModule implements Module {
         }
     }
 
+    /**
+     * Get the value of an attribute that does not have to be configured
+     *
+     * @param name name of the attribute
+     * @param type class of the attribute value
+     * @param defaultValue value returned if the attribute is missing or has no value
+     * @param <T> type of the attribute value
+     * @return configured value of the attribute, else the default value
+     */
+    private <T> T getOptionalAttribute(String name, Class<T> type, T defaultValue) {
+        try {
+            if (attributes.has(name)) {
+                T value = attributes.get(name, type);
+                return value != null ? value : defaultValue;
+            }
+        } catch (AttributeNotFoundException e) {
+            LOGGER.debug("Optional attribute {} not found, using default: {}", name, defaultValue, e);
+        }
+        return defaultValue;
+    }
+
     /**
      * Wait for stopLatch to turn to 0 which will indicate the application should terminate. See the stop() method.
      */
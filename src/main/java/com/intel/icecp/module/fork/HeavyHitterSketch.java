@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intel.icecp.module.fork;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Fixed-memory summary of the fork keys dominating the traffic. Message and byte counts per key are estimated with two
+ * Count-Min sketches. Two sets of {@code k} candidates are tracked: the keys with the highest estimated message count,
+ * and the keys with the highest estimated byte count, so a key sending few but large messages is reported too.
+ *
+ * <p>
+ * Each sketch row indexes its counters with an independent hash of the key, derived by double hashing from one
+ * 64-bit hash, so keys colliding in one row rarely collide in the others.
+ *
+ * <p>
+ * Recording does not lock: the counters are atomic, and a candidate set is only locked when a key not yet tracked
+ * overtakes its smallest candidate. Concurrent records may race on a candidate's estimates, which only makes the
+ * approximate counts slightly more approximate.
+ *
+ * <p>
+ * Counts are kept over tumbling windows: when a record falls outside the current window, or when {@link #expire(long)}
+ * finds it over, the candidates of the completed window are published as the current heavy hitters (see
+ * {@link #heavyHitters()}) with their rates, and recording moves to a second, reset, set of sketches. Memory use does
+ * not depend on the number of keys.
+ *
+ */
+public class HeavyHitterSketch {
+    private static final int DEPTH = 4;
+
+    private final int k;
+    private final int mask;
+    private final long windowMs;
+    private volatile Window window;
+    private Window spare;
+    private volatile List<HeavyHitter> heavyHitters = Collections.emptyList();
+
+    /**
+     * Constructor
+     *
+     * @param k number of heavy hitters to track, by message count and by byte count
+     * @param width number of counters per sketch row, rounded up to a power of two
+     * @param windowMs length of the tumbling window in milliseconds
+     */
+    public HeavyHitterSketch(int k, int width, long windowMs) {
+        if (k < 1 || width < 1 || windowMs < 1)
+            throw new IllegalArgumentException("Heavy hitter count, sketch width and window must be positive");
+        int size = Integer.highestOneBit(width - 1 > 0 ? width - 1 : 1) << 1;
+        this.k = k;
+        this.mask = size - 1;
+        this.windowMs = windowMs;
+        this.window = new Window(size, -1);
+        this.spare = new Window(size, -1);
+    }
+
+    /**
+     * Record a message for a fork key
+     *
+     * @param key fork key of the message
+     * @param length size of the message in bytes
+     * @param now current time in milliseconds
+     * @return true if a window was completed and {@link #heavyHitters()} changed
+     */
+    public boolean record(String key, int length, long now) {
+        boolean completed = false;
+        Window current = window;
+        if (current.start < 0) {
+            current = start(current, now);
+        } else if (now - current.start >= windowMs) {
+            completed = roll(current, now);
+            current = window;
+        }
+
+        // double hashing: row i uses h1 + i * h2, with h2 odd so that the rows differ for every key
+        long hash = ConsistentHashRing.hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long messageEstimate = Long.MAX_VALUE;
+        long byteEstimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = (h1 + row * h2) & mask;
+            messageEstimate = Math.min(messageEstimate, current.messages[row].incrementAndGet(index));
+            byteEstimate = Math.min(byteEstimate, current.bytes[row].addAndGet(index, length));
+        }
+
+        current.byMessages.offer(key, messageEstimate, byteEstimate);
+        current.byBytes.offer(key, messageEstimate, byteEstimate);
+        return completed;
+    }
+
+    /**
+     * @return heavy hitters of the last completed window, the union of the keys with the most messages and the keys
+     * with the most bytes, by decreasing message rate
+     */
+    public List<HeavyHitter> heavyHitters() {
+        return heavyHitters;
+    }
+
+    /**
+     * Complete the current window if it is over, so the heavy hitters do not show stale rates once traffic stops
+     *
+     * @param now current time in milliseconds
+     * @return true if a window was completed and {@link #heavyHitters()} changed
+     */
+    public boolean expire(long now) {
+        Window current = window;
+        if (current.start < 0 || now - current.start < windowMs)
+            return false;
+        boolean changed = !current.byMessages.isEmpty() || !heavyHitters.isEmpty();
+        return roll(current, now) && changed;
+    }
+
+    private synchronized Window start(Window current, long now) {
+        if (window == current && current.start < 0)
+            current.start = now;
+        return window;
+    }
+
+    /**
+     * Complete the given window and switch recording to the spare one; only the first caller for a window completes it.
+     * Locking here is fine, it happens once per window.
+     */
+    private synchronized boolean roll(Window current, long now) {
+        if (window != current)
+            return false;
+        Window next = spare;
+        next.reset(now);
+        window = next;
+        spare = current;
+
+        double seconds = (now - current.start) / 1000.0;
+        Map<String, HeavyHitter> completed = new LinkedHashMap<>();
+        for (Candidate candidate : current.byMessages.candidates())
+            completed.put(candidate.key, candidate.rates(seconds));
+        for (Candidate candidate : current.byBytes.candidates())
+            completed.putIfAbsent(candidate.key, candidate.rates(seconds));
+        List<HeavyHitter> sorted = new ArrayList<>(completed.values());
+        sorted.sort((a, b) -> Double.compare(b.getMessageRate(), a.getMessageRate()));
+        heavyHitters = Collections.unmodifiableList(sorted);
+        return true;
+    }
+
+    /**
+     * Sketches and candidates of one tumbling window
+     */
+    private class Window {
+        private final AtomicLongArray[] messages = new AtomicLongArray[DEPTH];
+        private final AtomicLongArray[] bytes = new AtomicLongArray[DEPTH];
+        private final TopCandidates byMessages = new TopCandidates(false);
+        private final TopCandidates byBytes = new TopCandidates(true);
+        private volatile long start;
+
+        private Window(int size, long start) {
+            for (int row = 0; row < DEPTH; row++) {
+                messages[row] = new AtomicLongArray(size);
+                bytes[row] = new AtomicLongArray(size);
+            }
+            this.start = start;
+        }
+
+        private void reset(long now) {
+            for (int row = 0; row < DEPTH; row++) {
+                for (int i = 0; i < messages[row].length(); i++) {
+                    messages[row].set(i, 0);
+                    bytes[row].set(i, 0);
+                }
+            }
+            byMessages.clear();
+            byBytes.clear();
+            start = now;
+        }
+    }
+
+    /**
+     * The {@code k} keys ranking highest by one of the estimates. Known candidates are updated and keys ranking below
+     * the smallest candidate are rejected without locking; a key overtaking the smallest candidate takes the lock.
+     */
+    private class TopCandidates {
+        private final boolean byBytes;
+        private final Map<String, Candidate> candidates = new ConcurrentHashMap<>();
+        private volatile long threshold;
+
+        private TopCandidates(boolean byBytes) {
+            this.byBytes = byBytes;
+        }
+
+        private void offer(String key, long messages, long bytes) {
+            Candidate candidate = candidates.get(key);
+            if (candidate != null) {
+                candidate.update(messages, bytes);
+                return;
+            }
+            long rank = byBytes ? bytes : messages;
+            if (rank <= threshold)
+                return;
+            synchronized (this) {
+                candidate = candidates.get(key);
+                if (candidate != null) {
+                    candidate.update(messages, bytes);
+                } else if (candidates.size() < k) {
+                    candidates.put(key, new Candidate(key, messages, bytes));
+                } else {
+                    // replace the smallest candidate if this key has overtaken it; k is small so a linear scan is fine
+                    Candidate smallest = smallest();
+                    if (rank > rank(smallest)) {
+                        candidates.remove(smallest.key);
+                        candidates.put(key, new Candidate(key, messages, bytes));
+                    }
+                }
+                if (candidates.size() >= k)
+                    threshold = rank(smallest());
+            }
+        }
+
+        private long rank(Candidate candidate) {
+            return byBytes ? candidate.bytes : candidate.messages;
+        }
+
+        private Candidate smallest() {
+            Candidate smallest = null;
+            for (Candidate c : candidates.values()) {
+                if (smallest == null || rank(c) < rank(smallest))
+                    smallest = c;
+            }
+            return smallest;
+        }
+
+        private Iterable<Candidate> candidates() {
+            return candidates.values();
+        }
+
+        private boolean isEmpty() {
+            return candidates.isEmpty();
+        }
+
+        private synchronized void clear() {
+            candidates.clear();
+            threshold = 0;
+        }
+    }
+
+    /**
+     * Key tracked in the current window with its estimated counts
+     */
+    private static class Candidate {
+        private final String key;
+        private volatile long messages;
+        private volatile long bytes;
+
+        private Candidate(String key, long messages, long bytes) {
+            this.key = key;
+            this.messages = messages;
+            this.bytes = bytes;
+        }
+
+        private void update(long messages, long bytes) {
+            // a racing record may have stored a newer estimate; the estimates only grow within a window
+            if (messages > this.messages)
+                this.messages = messages;
+            if (bytes > this.bytes)
+                this.bytes = bytes;
+        }
+
+        private HeavyHitter rates(double seconds) {
+            return new HeavyHitter(key, messages / seconds, bytes / seconds);
+        }
+    }
+
+    /**
+     * A fork key dominating the traffic of a completed window
+     */
+    public static class HeavyHitter {
+        private final String key;
+        private final double messageRate;
+        private final double byteRate;
+
+        HeavyHitter(String key, double messageRate, double byteRate) {
+            this.key = key;
+            this.messageRate = messageRate;
+            this.byteRate = byteRate;
+        }
+
+        /**
+         * @return the fork key
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return estimated messages per second over the window
+         */
+        public double getMessageRate() {
+            return messageRate;
+        }
+
+        /**
+         * @return estimated bytes per second over the window
+         */
+        public double getByteRate() {
+            return byteRate;
+        }
+    }
+}
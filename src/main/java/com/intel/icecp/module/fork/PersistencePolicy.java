@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intel.icecp.module.fork;
+
+import com.intel.icecp.core.metadata.Persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Chooses the {@link Persistence} of a forked channel from its fork key when the channel is opened. Rules are
+ * configured with the {@code persistence-rules} attribute as a list of entries separated by {@code ;}, each of the
+ * form {@code <key pattern>=<retention>}, and the first rule whose pattern matches the key wins. Patterns may use
+ * {@code *} and {@code ?} wildcards. Retention is {@code none} for non-persistent channels, {@code default} for the
+ * default persistence, or a duration such as {@code 500ms}, {@code 30s}, {@code 10m}, {@code 2h} or {@code 7d}
+ * (plain numbers are milliseconds). Keys matching no rule get the default persistence.
+ *
+ * <p>
+ * Ex: {@code FREEZER_*=7d; DIAG_*=none; *=1h}
+ *
+ */
+public class PersistencePolicy {
+    /** retention reported by {@link #retentionMs(String)} for keys getting the default persistence */
+    public static final long DEFAULT_RETENTION = -1;
+    private static final Persistence DEFAULT_PERSISTENCE = new Persistence();
+    private static final long NON_PERSISTENT_MS = 0;
+
+    private final List<Rule> rules;
+
+    private PersistencePolicy(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * @return policy giving every forked channel the default persistence
+     */
+    public static PersistencePolicy defaultPolicy() {
+        return new PersistencePolicy(new ArrayList<>());
+    }
+
+    /**
+     * Parse the {@code persistence-rules} specification
+     *
+     * @param specification configured rules, may be null
+     * @return the policy
+     * @throws IllegalArgumentException if a rule is malformed
+     */
+    public static PersistencePolicy parse(String specification) {
+        List<Rule> rules = new ArrayList<>();
+        if (specification != null) {
+            for (String entry : specification.split(";")) {
+                if (entry.trim().isEmpty())
+                    continue;
+                int separator = entry.lastIndexOf('=');
+                if (separator < 1)
+                    throw new IllegalArgumentException("Invalid persistence rule: " + entry);
+                long retentionMs = parseRetention(entry.substring(separator + 1).trim(), entry);
+                rules.add(new Rule(globToPattern(entry.substring(0, separator).trim()), retentionMs,
+                        retentionMs == DEFAULT_RETENTION ? DEFAULT_PERSISTENCE : new Persistence(retentionMs)));
+            }
+        }
+        return new PersistencePolicy(rules);
+    }
+
+    /**
+     * @param key fork key of the channel
+     * @return persistence of the first matching rule, else the default persistence
+     */
+    public Persistence forKey(String key) {
+        Rule rule = ruleFor(key);
+        return rule != null ? rule.persistence : DEFAULT_PERSISTENCE;
+    }
+
+    /**
+     * @param key fork key of the channel
+     * @return retention in milliseconds of the first matching rule, 0 for non-persistent channels, or
+     * {@link #DEFAULT_RETENTION} if the key gets the default persistence
+     */
+    public long retentionMs(String key) {
+        Rule rule = ruleFor(key);
+        return rule != null ? rule.retentionMs : DEFAULT_RETENTION;
+    }
+
+    private Rule ruleFor(String key) {
+        for (Rule rule : rules) {
+            if (rule.pattern.matcher(key).matches())
+                return rule;
+        }
+        return null;
+    }
+
+    private static Pattern globToPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*')
+                regex.append(".*");
+            else if (c == '?')
+                regex.append('.');
+            else
+                regex.append(Pattern.quote(String.valueOf(c)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private static long parseRetention(String retention, String entry) {
+        if ("default".equalsIgnoreCase(retention))
+            return DEFAULT_RETENTION;
+        if ("none".equalsIgnoreCase(retention))
+            return NON_PERSISTENT_MS;
+
+        long retentionMs = parseDurationMs(retention);
+        if (retentionMs < 0)
+            throw new IllegalArgumentException("Negative retention in persistence rule: " + entry);
+        return retentionMs;
+    }
+
+    /**
+     * Parse a duration such as {@code 500ms}, {@code 30s}, {@code 10m}, {@code 2h} or {@code 7d}; plain numbers are
+     * milliseconds
+     *
+     * @param duration the duration
+     * @return the duration in milliseconds
+     * @throws IllegalArgumentException if the duration is malformed
+     */
+    static long parseDurationMs(String duration) {
+        String trimmed = duration.trim();
+        TimeUnit unit = TimeUnit.MILLISECONDS;
+        String amount = trimmed;
+        if (trimmed.endsWith("ms")) {
+            amount = trimmed.substring(0, trimmed.length() - 2);
+        } else if (trimmed.endsWith("s")) {
+            unit = TimeUnit.SECONDS;
+            amount = trimmed.substring(0, trimmed.length() - 1);
+        } else if (trimmed.endsWith("m")) {
+            unit = TimeUnit.MINUTES;
+            amount = trimmed.substring(0, trimmed.length() - 1);
+        } else if (trimmed.endsWith("h")) {
+            unit = TimeUnit.HOURS;
+            amount = trimmed.substring(0, trimmed.length() - 1);
+        } else if (trimmed.endsWith("d")) {
+            unit = TimeUnit.DAYS;
+            amount = trimmed.substring(0, trimmed.length() - 1);
+        }
+
+        try {
+            return unit.toMillis(Long.parseLong(amount.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid duration: " + duration, e);
+        }
+    }
+
+    private static class Rule {
+        private final Pattern pattern;
+        private final long retentionMs;
+        private final Persistence persistence;
+
+        private Rule(Pattern pattern, long retentionMs, Persistence persistence) {
+            this.pattern = pattern;
+            this.retentionMs = retentionMs;
+            this.persistence = persistence;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intel.icecp.module.fork;
+
+import com.jayway.jsonpath.InvalidPathException;
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.PathNotFoundException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * A class of traffic with its own lane in the {@link PriorityScheduler}, selected by a predicate on the message
+ * payload. Classes are configured with the {@code priority-classes} attribute as a list of entries separated by
+ * {@code ;}, each of the form {@code <name>:<weight>:<capacity>:<JsonPath>=<value>}, in decreasing priority.
+ * An entry without a predicate configures the default lane that takes all remaining (bulk) traffic.
+ *
+ * <p>
+ * Ex: {@code alarm:8:256:$.type=door-alarm; freezer:4:256:$.type=freezer-alert; bulk:1:1024}
+ *
+ */
+public class PriorityClass {
+    /** name of the default lane if it is not configured explicitly */
+    public static final String DEFAULT_NAME = "bulk";
+    private static final int DEFAULT_WEIGHT = 1;
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final String name;
+    private final int weight;
+    private final int capacity;
+    private final JsonPath path;
+    private final String value;
+    private final TopLevelKeyScanner scanner;
+
+    /**
+     * Constructor with all fields
+     *
+     * @param name name of the class
+     * @param weight share of the publishing capacity in weighted scheduling
+     * @param capacity maximum number of queued messages, further messages are shed
+     * @param path JsonPath selecting the field to match, null for the default class
+     * @param value value the field must have for the message to belong to this class
+     */
+    public PriorityClass(String name, int weight, int capacity, String path, String value) {
+        if (name == null || name.isEmpty())
+            throw new IllegalArgumentException("Priority class must have a name");
+        if (weight < 1 || capacity < 1)
+            throw new IllegalArgumentException("Priority class " + name + " must have a positive weight and capacity");
+        this.name = name;
+        this.weight = weight;
+        this.capacity = capacity;
+        try {
+            this.path = path != null ? JsonPath.compile(path) : null;
+        } catch (InvalidPathException e) {
+            throw new IllegalArgumentException("Invalid path in priority class " + name + ": " + path, e);
+        }
+        this.value = value;
+        this.scanner = TopLevelKeyScanner.forFilter(path);
+    }
+
+    /**
+     * Parse the {@code priority-classes} specification
+     *
+     * @param specification configured priority classes
+     * @return the priority classes in decreasing priority, with the default class last
+     * @throws IllegalArgumentException if the specification is malformed
+     */
+    public static List<PriorityClass> parse(String specification) {
+        List<PriorityClass> classes = new ArrayList<>();
+        PriorityClass defaultClass = null;
+        for (String entry : specification.split(";")) {
+            if (entry.trim().isEmpty())
+                continue;
+
+            String[] fields = entry.trim().split(":", 4);
+            if (fields.length < 3)
+                throw new IllegalArgumentException("Invalid priority class: " + entry);
+            int weight = parseNumber(fields[1], entry);
+            int capacity = parseNumber(fields[2], entry);
+
+            if (fields.length == 3 || fields[3].trim().isEmpty()) {
+                defaultClass = new PriorityClass(fields[0].trim(), weight, capacity, null, null);
+            } else {
+                int separator = fields[3].lastIndexOf('=');
+                if (separator < 1)
+                    throw new IllegalArgumentException("Invalid priority class predicate: " + entry);
+                classes.add(new PriorityClass(fields[0].trim(), weight, capacity,
+                        fields[3].substring(0, separator).trim(), fields[3].substring(separator + 1).trim()));
+            }
+        }
+        classes.add(defaultClass != null ? defaultClass : new PriorityClass(DEFAULT_NAME, DEFAULT_WEIGHT, DEFAULT_CAPACITY, null, null));
+        return classes;
+    }
+
+    private static int parseNumber(String field, String entry) {
+        try {
+            return Integer.parseInt(field.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number in priority class: " + entry, e);
+        }
+    }
+
+    /**
+     * @param payload message payload
+     * @return true if the message belongs to this class; the default class matches every message
+     */
+    public boolean matches(byte[] payload) {
+        if (path == null)
+            return true;
+
+        String scanned = scanner != null ? scanner.scan(payload) : null;
+        if (scanned != null)
+            return value.equals(scanned);
+
+        try {
+            Object selected = path.read(new String(payload, StandardCharsets.UTF_8));
+            return selected != null && value.equals(String.valueOf(selected));
+        } catch (PathNotFoundException e) {
+            return false;
+        }
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int weight() {
+        return weight;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
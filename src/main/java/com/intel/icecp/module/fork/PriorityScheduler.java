@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intel.icecp.module.fork;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Runs forked publishing on a single worker thread fed by one bounded queue (lane) per {@link PriorityClass}. When a
+ * lane is full further tasks for it are shed, so a flood of bulk telemetry cannot delay the lanes in front of it by
+ * more than their own queue length.
+ *
+ * <p>
+ * In {@link Mode#STRICT} mode the highest priority non-empty lane is always served first. In {@link Mode#WEIGHTED}
+ * mode non-empty lanes are served in smooth weighted round-robin order, so lower lanes keep a share of the capacity.
+ *
+ * <p>
+ * On {@link #close()} the lanes are drained for a bounded time; tasks still queued after that are discarded and their
+ * discard callbacks run, so no task disappears unaccounted.
+ *
+ */
+public class PriorityScheduler implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final long DRAIN_TIMEOUT_MS = 1000;
+
+    /**
+     * Scheduling policy between lanes
+     */
+    public enum Mode {
+        STRICT, WEIGHTED
+    }
+
+    private final Lane[] lanes;
+    private final Mode mode;
+    private final Thread worker;
+    private int queued;
+    private boolean accepting = true;
+    private long drainDeadline;
+
+    /**
+     * Constructor, starts the worker thread
+     *
+     * @param classes priority classes in decreasing priority, one lane is created for each
+     * @param mode scheduling policy between lanes
+     */
+    public PriorityScheduler(List<PriorityClass> classes, Mode mode) {
+        this.lanes = classes.stream().map(Lane::new).toArray(Lane[]::new);
+        this.mode = mode;
+        this.worker = new Thread(this::runWorker, "fork-priority-scheduler");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Queue a task on a lane
+     *
+     * @param lane index of the lane, in the order of the priority classes
+     * @param task task to run on the worker thread
+     * @return true if the task was queued, false if it was shed because the lane is full or the scheduler is closed
+     */
+    public boolean submit(int lane, Runnable task) {
+        return submit(lane, task, null);
+    }
+
+    /**
+     * Queue a task on a lane
+     *
+     * @param lane index of the lane, in the order of the priority classes
+     * @param task task to run on the worker thread
+     * @param onDiscard run instead of the task if it is still queued when the scheduler is closed, may be null
+     * @return true if the task was queued, false if it was shed because the lane is full or the scheduler is closed
+     */
+    public synchronized boolean submit(int lane, Runnable task, Runnable onDiscard) {
+        Lane target = lanes[lane];
+        if (!accepting || target.queue.size() >= target.priorityClass.capacity()) {
+            target.shed++;
+            return false;
+        }
+        target.queue.add(new Task(task, onDiscard));
+        queued++;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * @return number of shed tasks per lane name
+     */
+    public synchronized Map<String, Long> shedCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Lane lane : lanes)
+            counts.put(lane.priorityClass.name(), lane.shed);
+        return counts;
+    }
+
+    /**
+     * @return number of tasks waiting in all lanes
+     */
+    public synchronized int queued() {
+        return queued;
+    }
+
+    private void runWorker() {
+        Task task;
+        while ((task = next()) != null) {
+            try {
+                task.task.run();
+            } catch (RuntimeException e) {
+                LOGGER.error("Scheduled task failed", e);
+            }
+        }
+    }
+
+    /**
+     * @return the next task to run, or null once the scheduler is closed and drained or the drain time is over
+     */
+    private synchronized Task next() {
+        while (queued == 0) {
+            if (!accepting)
+                return null;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        if (!accepting && System.currentTimeMillis() >= drainDeadline)
+            return null;
+
+        Lane selected = mode == Mode.STRICT ? highestNonEmpty() : nextWeighted();
+        queued--;
+        return selected.queue.poll();
+    }
+
+    private Lane highestNonEmpty() {
+        for (Lane lane : lanes) {
+            if (!lane.queue.isEmpty())
+                return lane;
+        }
+        throw new IllegalStateException("No queued task");
+    }
+
+    /**
+     * Smooth weighted round-robin: every non-empty lane earns its weight, the richest lane is served and pays back the
+     * total weight of the competing lanes.
+     */
+    private Lane nextWeighted() {
+        Lane selected = null;
+        int total = 0;
+        for (Lane lane : lanes) {
+            if (lane.queue.isEmpty())
+                continue;
+            lane.credit += lane.priorityClass.weight();
+            total += lane.priorityClass.weight();
+            if (selected == null || lane.credit > selected.credit)
+                selected = lane;
+        }
+        if (selected == null)
+            throw new IllegalStateException("No queued task");
+        selected.credit -= total;
+        return selected;
+    }
+
+    /**
+     * Stop accepting tasks and let the worker thread drain the lanes for a bounded time; tasks still queued after that
+     * are discarded and their discard callbacks run on the calling thread
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            accepting = false;
+            drainDeadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+            notifyAll();
+        }
+        try {
+            worker.join(DRAIN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            LOGGER.warn("Interrupted while stopping scheduler", e);
+            Thread.currentThread().interrupt();
+        }
+
+        List<Task> discarded = new ArrayList<>();
+        synchronized (this) {
+            for (Lane lane : lanes) {
+                discarded.addAll(lane.queue);
+                lane.queue.clear();
+            }
+            queued = 0;
+            notifyAll();
+        }
+        if (!discarded.isEmpty())
+            LOGGER.warn("Discarding {} queued tasks on close", discarded.size());
+        for (Task task : discarded) {
+            if (task.onDiscard == null)
+                continue;
+            try {
+                task.onDiscard.run();
+            } catch (RuntimeException e) {
+                LOGGER.error("Discard callback failed", e);
+            }
+        }
+    }
+
+    private static class Task {
+        private final Runnable task;
+        private final Runnable onDiscard;
+
+        private Task(Runnable task, Runnable onDiscard) {
+            this.task = task;
+            this.onDiscard = onDiscard;
+        }
+    }
+
+    private static class Lane {
+        private final PriorityClass priorityClass;
+        private final ArrayDeque<Task> queue = new ArrayDeque<>();
+        private long shed;
+        private int credit;
+
+        private Lane(PriorityClass priorityClass) {
+            this.priorityClass = priorityClass;
+        }
+    }
+}
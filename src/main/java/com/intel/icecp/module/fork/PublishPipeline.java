@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intel.icecp.module.fork;
+
+import com.intel.icecp.core.Channel;
+import com.intel.icecp.core.Message;
+import com.intel.icecp.core.misc.ChannelIOException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Publishes on the forked channels asynchronously from a shared thread pool. Every channel has its own window of at
+ * most {@code window} queued or in-flight publishes, drained in order by at most one pool thread at a time, so a slow
+ * channel only backs up its own window instead of the callback thread and every channel behind it.
+ *
+ * <p>
+ * A publish that does not return within the stall timeout holds its pool thread indefinitely; the pipeline then adds a
+ * thread to the pool for as long as the publish is stalled, so the other channels keep their share of the pool. At
+ * most {@code maxStalled} stalled publishes are compensated this way: beyond that, every further hung channel takes
+ * one of the {@code threads} pool threads away from the others.
+ *
+ * <p>
+ * Publishes offered to a full window are rejected and counted as saturation of that channel. Publishes still queued
+ * when the pipeline is closed are discarded; their completions are invoked with the discarded flag set, so no publish
+ * disappears unaccounted.
+ *
+ */
+public class PublishPipeline implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final long SHUTDOWN_TIMEOUT_MS = 1000;
+    private static final long DEFAULT_STALL_TIMEOUT_MS = 1000;
+    private static final int DEFAULT_MAX_STALLED = 64;
+
+    /**
+     * Callback invoked on a pool thread once a publish has completed, or on the closing thread if it was discarded
+     */
+    @FunctionalInterface
+    public interface Completion {
+        /**
+         * @param channelName name of the channel published on
+         * @param message published message
+         * @param failure the publish failure, null if the publish succeeded or was discarded
+         * @param discarded true if the message was not published because the pipeline was closed
+         */
+        void completed(String channelName, Message message, ChannelIOException failure, boolean discarded);
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService watchdog;
+    private final int window;
+    private final int threads;
+    private final long stallTimeoutMs;
+    private final int maxStalled;
+    private int stalled;
+    private final Map<String, ChannelWindow> windows = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor, with a stall timeout of one second and at most 64 compensated stalled publishes
+     *
+     * @param window maximum number of queued or in-flight publishes per channel
+     * @param threads number of threads publishing on all channels
+     */
+    public PublishPipeline(int window, int threads) {
+        this(window, threads, DEFAULT_STALL_TIMEOUT_MS, DEFAULT_MAX_STALLED);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param window maximum number of queued or in-flight publishes per channel
+     * @param threads number of threads publishing on all channels
+     * @param stallTimeoutMs time after which a publish that has not returned is considered stalled
+     * @param maxStalled maximum number of stalled publishes for which a thread is added to the pool
+     */
+    public PublishPipeline(int window, int threads, long stallTimeoutMs, int maxStalled) {
+        if (window < 1 || threads < 1)
+            throw new IllegalArgumentException("Publish window and threads must be positive");
+        if (stallTimeoutMs < 1 || maxStalled < 0)
+            throw new IllegalArgumentException("Stall timeout must be positive and maximum stalled publishes not negative");
+        this.window = window;
+        this.threads = threads;
+        this.stallTimeoutMs = stallTimeoutMs;
+        this.maxStalled = maxStalled;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "fork-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fork-publish-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long checkInterval = Math.max(1, stallTimeoutMs / 2);
+        watchdog.scheduleWithFixedDelay(this::checkStalls, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue a message for publishing on a channel
+     *
+     * @param channelName name of the channel
+     * @param channel channel to publish on
+     * @param message message to publish
+     * @param completion callback invoked once the publish has completed
+     * @return true if the publish was queued, false if the window of the channel is full or the pipeline is closed
+     */
+    public boolean publish(String channelName, Channel<Message> channel, Message message, Completion completion) {
+        return windows.computeIfAbsent(channelName, name -> new ChannelWindow(name, channel))
+                .offer(new Pending(message, completion));
+    }
+
+    /**
+     * @return rejected publishes and window occupancy, per channel that has rejected publishes or publishes in flight
+     */
+    public Map<String, Saturation> saturation() {
+        Map<String, Saturation> saturation = new TreeMap<>();
+        windows.values().forEach(channelWindow -> {
+            Saturation channelSaturation = channelWindow.saturation();
+            if (channelSaturation.getRejected() > 0 || channelSaturation.getInFlight() > 0)
+                saturation.put(channelWindow.name, channelSaturation);
+        });
+        return saturation;
+    }
+
+    /**
+     * @param channelName name of the channel
+     * @return number of queued or in-flight publishes on the channel
+     */
+    public int inFlight(String channelName) {
+        ChannelWindow channelWindow = windows.get(channelName);
+        return channelWindow != null ? channelWindow.size() : 0;
+    }
+
+    /**
+     * @return number of stalled publishes for which a thread has been added to the pool
+     */
+    public synchronized int stalled() {
+        return stalled;
+    }
+
+    /**
+     * Stop accepting publishes, wait briefly for the queued ones to complete, then discard the rest and invoke their
+     * completions with the discarded flag on the calling thread
+     */
+    @Override
+    public void close() {
+        watchdog.shutdownNow();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                LOGGER.warn("Publishes still in flight after {} ms, discarding them", SHUTDOWN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            LOGGER.warn("Interrupted while stopping publish pipeline", e);
+            Thread.currentThread().interrupt();
+        }
+
+        // discard before interrupting the publishes still in flight, so they do not complete as published
+        Map<String, List<Pending>> discarded = new TreeMap<>();
+        windows.values().forEach(channelWindow -> discarded.put(channelWindow.name, channelWindow.discard()));
+        executor.shutdownNow();
+
+        discarded.forEach((name, pendings) -> {
+            for (Pending pending : pendings) {
+                try {
+                    pending.completion.completed(name, pending.message, null, true);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Publish completion failed for channel {}", name, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Run by the watchdog: compensate every publish that has been stalled for longer than the stall timeout
+     */
+    private void checkStalls() {
+        long now = System.currentTimeMillis();
+        for (ChannelWindow channelWindow : windows.values()) {
+            if (channelWindow.markStalled(now))
+                LOGGER.warn("Publish on channel {} stalled for more than {} ms, added a publisher thread", channelWindow.name, stallTimeoutMs);
+        }
+    }
+
+    /**
+     * Add a pool thread for a stalled publish
+     *
+     * @return false if the maximum number of stalled publishes is already compensated
+     */
+    private synchronized boolean addStalledThread() {
+        if (stalled >= maxStalled)
+            return false;
+        stalled++;
+        // the maximum pool size is raised first, it may never be below the core size
+        executor.setMaximumPoolSize(threads + stalled);
+        executor.setCorePoolSize(threads + stalled);
+        return true;
+    }
+
+    /**
+     * Remove the pool thread added for a stalled publish that has returned
+     */
+    private synchronized void removeStalledThread() {
+        stalled--;
+        executor.setCorePoolSize(threads + stalled);
+        executor.setMaximumPoolSize(threads + stalled);
+    }
+
+    /**
+     * Rejected publishes and occupancy of the window of a channel
+     */
+    public static class Saturation {
+        private final long rejected;
+        private final int inFlight;
+        private final double occupancy;
+
+        Saturation(long rejected, int inFlight, int window) {
+            this.rejected = rejected;
+            this.inFlight = inFlight;
+            this.occupancy = (double) inFlight / window;
+        }
+
+        /**
+         * @return number of publishes rejected because the window was full
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @return number of queued or in-flight publishes
+         */
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        /**
+         * @return fraction of the window in use, from 0 to 1
+         */
+        public double getOccupancy() {
+            return occupancy;
+        }
+    }
+
+    private static class Pending {
+        private final Message message;
+        private final Completion completion;
+
+        private Pending(Message message, Completion completion) {
+            this.message = message;
+            this.completion = completion;
+        }
+    }
+
+    /**
+     * Window of one channel; the head of the queue is the publish in flight
+     */
+    private class ChannelWindow implements Runnable {
+        private final String name;
+        private final Channel<Message> channel;
+        private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+        private boolean scheduled;
+        private long rejected;
+        // start of the publish in flight, 0 if none
+        private long publishStarted;
+        private boolean stalled;
+        // set once the pipeline has discarded the queue, including a publish that may still be in flight
+        private boolean discarded;
+
+        private ChannelWindow(String name, Channel<Message> channel) {
+            this.name = name;
+            this.channel = channel;
+        }
+
+        private synchronized boolean offer(Pending pending) {
+            if (discarded)
+                return false;
+            if (queue.size() >= window) {
+                rejected++;
+                return false;
+            }
+            queue.add(pending);
+            if (!scheduled) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    queue.removeLast();
+                    return false;
+                }
+                scheduled = true;
+            }
+            return true;
+        }
+
+        private synchronized Saturation saturation() {
+            return new Saturation(rejected, queue.size(), window);
+        }
+
+        private synchronized int size() {
+            return queue.size();
+        }
+
+        /**
+         * @return the queued publishes, removed from the window; the window accepts no publishes afterwards
+         */
+        private synchronized List<Pending> discard() {
+            discarded = true;
+            List<Pending> pending = new ArrayList<>(queue);
+            queue.clear();
+            return pending;
+        }
+
+        /**
+         * @param now current time
+         * @return true if the publish in flight has just been found stalled and a thread was added for it
+         */
+        private synchronized boolean markStalled(long now) {
+            if (publishStarted == 0 || stalled || now - publishStarted < stallTimeoutMs)
+                return false;
+            stalled = addStalledThread();
+            return stalled;
+        }
+
+        /**
+         * Drain at most one window of publishes, then yield the pool thread to other channels
+         */
+        @Override
+        public void run() {
+            for (int i = 0; i < window; i++) {
+                Pending pending;
+                synchronized (this) {
+                    pending = queue.peek();
+                    if (pending == null) {
+                        scheduled = false;
+                        return;
+                    }
+                    publishStarted = System.currentTimeMillis();
+                }
+
+                ChannelIOException failure = null;
+                try {
+                    channel.publish(pending.message);
+                } catch (ChannelIOException e) {
+                    failure = e;
+                }
+
+                boolean wasStalled;
+                boolean wasDiscarded;
+                synchronized (this) {
+                    queue.poll();
+                    publishStarted = 0;
+                    wasStalled = stalled;
+                    stalled = false;
+                    wasDiscarded = discarded;
+                }
+                if (wasStalled)
+                    removeStalledThread();
+                // the completion of a publish discarded on close has already run
+                if (wasDiscarded)
+                    return;
+                try {
+                    pending.completion.completed(name, pending.message, failure, false);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Publish completion failed for channel {}", name, e);
+                }
+            }
+
+            synchronized (this) {
+                if (queue.isEmpty()) {
+                    scheduled = false;
+                    return;
+                }
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled = false;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intel.icecp.module.fork;
+
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Fast path for message filters of the form {@code $.fieldname} (or {@code $['fieldname']}): scans the raw payload
+ * bytes for the key at the top nesting level and slices out its string value, without building a JSON tree or
+ * evaluating a JsonPath expression.
+ *
+ * <p>
+ * The scanner only answers when the result is unambiguous: a well-formed JSON object whose top-level key holds a
+ * plain string. For anything else (missing key, non-string or escaped values, escaped keys, malformed or unusual
+ * input) {@link #scan(byte[])} returns null and the caller must fall back to the general JsonPath engine, which then
+ * produces the same value or exception as it always has.
+ *
+ */
+public class TopLevelKeyScanner {
+    private static final Pattern SIMPLE_FILTER = Pattern.compile("^\\$(?:\\.([A-Za-z0-9_-]+)|\\['([A-Za-z0-9_-]+)'\\])$");
+    // deeper nesting is left to the JsonPath engine
+    private static final int MAX_DEPTH = 64;
+    private static final int NOT_HANDLED = -1;
+
+    private final byte[] key;
+
+    private TopLevelKeyScanner(String key) {
+        this.key = key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Create a scanner for a message filter
+     *
+     * @param messageFilter JsonPath message filter
+     * @return scanner for the top-level key of the filter, or null if the filter is not a simple top-level key lookup
+     */
+    public static TopLevelKeyScanner forFilter(String messageFilter) {
+        if (messageFilter == null)
+            return null;
+        Matcher matcher = SIMPLE_FILTER.matcher(messageFilter.trim());
+        if (!matcher.matches())
+            return null;
+        return new TopLevelKeyScanner(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+    }
+
+    /**
+     * Extract the string value of the top-level key from a JSON document
+     *
+     * @param json UTF-8 encoded JSON document
+     * @return the string value of the key, or null if the scanner cannot decide and JsonPath must be used instead
+     */
+    public String scan(byte[] json) {
+        int pos = skipWhitespace(json, 0);
+        if (pos >= json.length || json[pos] != '{')
+            return null;
+
+        int valueStart = NOT_HANDLED;
+        int valueEnd = NOT_HANDLED;
+        pos = skipWhitespace(json, pos + 1);
+        if (pos < json.length && json[pos] == '}')
+            return null;
+
+        while (true) {
+            if (pos >= json.length || json[pos] != '"')
+                return null;
+            int keyEnd = skipString(json, pos);
+            if (keyEnd == NOT_HANDLED || containsEscape(json, pos + 1, keyEnd - 1))
+                return null;
+            boolean match = matchesKey(json, pos + 1, keyEnd - 1);
+
+            pos = skipWhitespace(json, keyEnd);
+            if (pos >= json.length || json[pos] != ':')
+                return null;
+            pos = skipWhitespace(json, pos + 1);
+
+            if (match) {
+                // only plain strings are handled, the last occurrence of a duplicated key wins as in JsonPath
+                if (pos >= json.length || json[pos] != '"')
+                    return null;
+                int end = skipString(json, pos);
+                if (end == NOT_HANDLED || containsEscape(json, pos + 1, end - 1))
+                    return null;
+                valueStart = pos + 1;
+                valueEnd = end - 1;
+                pos = end;
+            } else {
+                pos = skipValue(json, pos, 1);
+                if (pos == NOT_HANDLED)
+                    return null;
+            }
+
+            pos = skipWhitespace(json, pos);
+            if (pos >= json.length)
+                return null;
+            if (json[pos] == '}')
+                break;
+            if (json[pos] != ',')
+                return null;
+            pos = skipWhitespace(json, pos + 1);
+        }
+
+        // nothing but whitespace may follow the top-level object
+        if (skipWhitespace(json, pos + 1) != json.length || valueStart == NOT_HANDLED)
+            return null;
+        return new String(json, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8);
+    }
+
+    private boolean matchesKey(byte[] json, int start, int end) {
+        if (end - start != key.length)
+            return false;
+        for (int i = 0; i < key.length; i++) {
+            if (json[start + i] != key[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean containsEscape(byte[] json, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (json[i] == '\\')
+                return true;
+        }
+        return false;
+    }
+
+    private static int skipWhitespace(byte[] json, int pos) {
+        while (pos < json.length && (json[pos] == ' ' || json[pos] == '\t' || json[pos] == '\n' || json[pos] == '\r'))
+            pos++;
+        return pos;
+    }
+
+    /**
+     * @return position after the closing quote of the string starting at pos, or NOT_HANDLED
+     */
+    private static int skipString(byte[] json, int pos) {
+        for (int i = pos + 1; i < json.length; i++) {
+            if (json[i] == '\\')
+                i++;
+            else if (json[i] == '"')
+                return i + 1;
+        }
+        return NOT_HANDLED;
+    }
+
+    /**
+     * @return position after the JSON value starting at pos, or NOT_HANDLED
+     */
+    private static int skipValue(byte[] json, int pos, int depth) {
+        if (pos >= json.length || depth > MAX_DEPTH)
+            return NOT_HANDLED;
+        switch (json[pos]) {
+            case '"':
+                return skipString(json, pos);
+            case '{':
+                return skipObject(json, pos, depth);
+            case '[':
+                return skipArray(json, pos, depth);
+            case 't':
+                return skipLiteral(json, pos, "true");
+            case 'f':
+                return skipLiteral(json, pos, "false");
+            case 'n':
+                return skipLiteral(json, pos, "null");
+            default:
+                return skipNumber(json, pos);
+        }
+    }
+
+    private static int skipObject(byte[] json, int pos, int depth) {
+        pos = skipWhitespace(json, pos + 1);
+        if (pos < json.length && json[pos] == '}')
+            return pos + 1;
+        while (true) {
+            if (pos >= json.length || json[pos] != '"')
+                return NOT_HANDLED;
+            pos = skipString(json, pos);
+            if (pos == NOT_HANDLED)
+                return NOT_HANDLED;
+            pos = skipWhitespace(json, pos);
+            if (pos >= json.length || json[pos] != ':')
+                return NOT_HANDLED;
+            pos = skipValue(json, skipWhitespace(json, pos + 1), depth + 1);
+            if (pos == NOT_HANDLED)
+                return NOT_HANDLED;
+            pos = skipWhitespace(json, pos);
+            if (pos >= json.length)
+                return NOT_HANDLED;
+            if (json[pos] == '}')
+                return pos + 1;
+            if (json[pos] != ',')
+                return NOT_HANDLED;
+            pos = skipWhitespace(json, pos + 1);
+        }
+    }
+
+    private static int skipArray(byte[] json, int pos, int depth) {
+        pos = skipWhitespace(json, pos + 1);
+        if (pos < json.length && json[pos] == ']')
+            return pos + 1;
+        while (true) {
+            pos = skipValue(json, pos, depth + 1);
+            if (pos == NOT_HANDLED)
+                return NOT_HANDLED;
+            pos = skipWhitespace(json, pos);
+            if (pos >= json.length)
+                return NOT_HANDLED;
+            if (json[pos] == ']')
+                return pos + 1;
+            if (json[pos] != ',')
+                return NOT_HANDLED;
+            pos = skipWhitespace(json, pos + 1);
+        }
+    }
+
+    private static int skipLiteral(byte[] json, int pos, String literal) {
+        if (pos + literal.length() > json.length)
+            return NOT_HANDLED;
+        for (int i = 0; i < literal.length(); i++) {
+            if (json[pos + i] != literal.charAt(i))
+                return NOT_HANDLED;
+        }
+        return pos + literal.length();
+    }
+
+    /**
+     * Accepts only the strict JSON number grammar: {@code -?(0|[1-9][0-9]*)(\.[0-9]+)?([eE][+-]?[0-9]+)?}
+     */
+    private static int skipNumber(byte[] json, int pos) {
+        if (pos < json.length && json[pos] == '-')
+            pos++;
+        if (pos >= json.length || !isDigit(json[pos]))
+            return NOT_HANDLED;
+        if (json[pos] == '0')
+            pos++;
+        else
+            pos = skipDigits(json, pos);
+        if (pos < json.length && json[pos] == '.') {
+            int fraction = skipDigits(json, pos + 1);
+            if (fraction == pos + 1)
+                return NOT_HANDLED;
+            pos = fraction;
+        }
+        if (pos < json.length && (json[pos] == 'e' || json[pos] == 'E')) {
+            pos++;
+            if (pos < json.length && (json[pos] == '+' || json[pos] == '-'))
+                pos++;
+            int exponent = skipDigits(json, pos);
+            if (exponent == pos)
+                return NOT_HANDLED;
+            pos = exponent;
+        }
+        return pos;
+    }
+
+    private static int skipDigits(byte[] json, int pos) {
+        while (pos < json.length && isDigit(json[pos]))
+            pos++;
+        return pos;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
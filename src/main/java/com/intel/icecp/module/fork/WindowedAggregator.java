@@ -0,0 +1,484 @@
+/*
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intel.icecp.module.fork;
+
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.InvalidPathException;
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.JsonPathException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Incremental per-key aggregation of numeric fields over tumbling or sliding windows. For every fork key and every
+ * configured JsonPath, the count, minimum, maximum and sum of the values are accumulated per pane, a pane being one
+ * slide of the window. When a pane closes, {@link #tick(long)} returns one {@link WindowAggregate} per key and window,
+ * combining the panes the window covers, to be published on {@code <fork channel>/agg/<window>}.
+ *
+ * <p>
+ * Windows are configured as {@code <size>} for a tumbling window or {@code <size>/<slide>} for a sliding window whose
+ * size is a multiple of its slide, e.g. {@code 1m, 5m/1m}; slides are at least {@link #TICK_INTERVAL_MS}, the period
+ * at which {@link #tick(long)} is expected to run. Panes are aligned on the epoch. At most {@code maxKeys} keys are
+ * accumulated; the least recently updated key is evicted to make room for a new one, so memory is bounded by
+ * {@code maxKeys * windows * paths * (panes + 2)} accumulators: every ring holds two panes more than the window
+ * covers, so records for the next pane do not overwrite a pane before {@link #tick(long)} has closed it, even when a
+ * tick runs up to one slide late.
+ *
+ */
+public class WindowedAggregator {
+    /**
+     * Period at which {@link #tick(long)} is expected to run, and the shortest slide accepted
+     */
+    public static final long TICK_INTERVAL_MS = 1000;
+
+    private final List<JsonPath> paths;
+    private final List<String> pathNames;
+    private final List<AggregationWindow> windows;
+    private final int maxKeys;
+    private final long retentionMs;
+    private final Map<String, KeyState> keys;
+    private long evicted;
+    private long skipped;
+
+    /**
+     * Constructor
+     *
+     * @param paths JsonPaths of the numeric fields to aggregate
+     * @param windows windows to aggregate over
+     * @param maxKeys maximum number of keys accumulated at a time
+     */
+    public WindowedAggregator(List<String> paths, List<AggregationWindow> windows, int maxKeys) {
+        if (paths.isEmpty() || windows.isEmpty())
+            throw new IllegalArgumentException("Aggregation needs at least one path and one window");
+        if (maxKeys < 1)
+            throw new IllegalArgumentException("Maximum number of aggregation keys must be positive");
+        this.paths = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            try {
+                this.paths.add(JsonPath.compile(path));
+            } catch (InvalidPathException e) {
+                throw new IllegalArgumentException("Invalid aggregation path: " + path, e);
+            }
+        }
+        this.pathNames = new ArrayList<>(paths);
+        this.windows = new ArrayList<>(windows);
+        this.maxKeys = maxKeys;
+        this.retentionMs = windows.stream().mapToLong(window -> window.sizeMs + window.slideMs).max().orElse(0);
+        // access ordered, so the eldest entry is the least recently updated key
+        this.keys = new LinkedHashMap<String, KeyState>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, KeyState> eldest) {
+                if (size() > WindowedAggregator.this.maxKeys) {
+                    evicted++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Parse the comma separated {@code aggregation-paths} specification
+     *
+     * @param specification configured paths
+     * @return the non-empty paths
+     */
+    public static List<String> parsePaths(String specification) {
+        List<String> paths = new ArrayList<>();
+        for (String path : specification.split(",")) {
+            if (!path.trim().isEmpty())
+                paths.add(path.trim());
+        }
+        return paths;
+    }
+
+    /**
+     * Parse the comma separated {@code aggregation-windows} specification
+     *
+     * @param specification configured windows
+     * @return the windows
+     * @throws IllegalArgumentException if a window is malformed
+     */
+    public static List<AggregationWindow> parseWindows(String specification) {
+        List<AggregationWindow> windows = new ArrayList<>();
+        for (String window : specification.split(",")) {
+            if (!window.trim().isEmpty())
+                windows.add(AggregationWindow.parse(window.trim()));
+        }
+        return windows;
+    }
+
+    /**
+     * Accumulate the numeric fields of a message; fields that are missing or not numeric are skipped
+     *
+     * @param key fork key of the message
+     * @param forkChannelName name of the forked channel of the key
+     * @param payload message payload
+     * @param now current time in milliseconds
+     */
+    public void record(String key, String forkChannelName, byte[] payload, long now) {
+        Object document;
+        try {
+            document = Configuration.defaultConfiguration().jsonProvider().parse(new String(payload, StandardCharsets.UTF_8));
+        } catch (JsonPathException e) {
+            return;
+        }
+        record(key, forkChannelName, document, now);
+    }
+
+    /**
+     * Accumulate the numeric fields of a message whose payload has already been parsed, e.g. to apply the
+     * message-filter; fields that are missing or not numeric are skipped
+     *
+     * @param key fork key of the message
+     * @param forkChannelName name of the forked channel of the key
+     * @param document payload parsed by the default JsonPath provider
+     * @param now current time in milliseconds
+     */
+    public void record(String key, String forkChannelName, Object document, long now) {
+        double[] values = new double[paths.size()];
+        boolean[] present = new boolean[paths.size()];
+        boolean any = false;
+
+        for (int i = 0; i < paths.size(); i++) {
+            try {
+                Object value = paths.get(i).read(document);
+                if (value instanceof Number) {
+                    values[i] = ((Number) value).doubleValue();
+                    present[i] = true;
+                    any = true;
+                }
+            } catch (JsonPathException e) {
+                // field missing from this message
+            }
+        }
+        if (!any)
+            return;
+
+        synchronized (this) {
+            KeyState state = keys.get(key);
+            if (state == null) {
+                state = new KeyState(forkChannelName);
+                keys.put(key, state);
+            }
+            state.lastUpdate = now;
+            for (int w = 0; w < windows.size(); w++) {
+                AggregationWindow window = windows.get(w);
+                long pane = now / window.slideMs;
+                for (int i = 0; i < values.length; i++) {
+                    if (present[i])
+                        state.accumulator(w, i, window, pane).add(values[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Close the panes that have ended and aggregate the windows ending with them. Every pane closed since the last tick
+     * is aggregated as long as the rings still hold its window, i.e. when the tick is at most one slide late; windows
+     * of older panes have been partly overwritten and are skipped (see {@link #skipped()}).
+     *
+     * @param now current time in milliseconds
+     * @return one aggregate per key with values and window that ended since the last tick, in pane order
+     */
+    public synchronized List<WindowAggregate> tick(long now) {
+        List<WindowAggregate> aggregates = new ArrayList<>();
+        for (int w = 0; w < windows.size(); w++) {
+            AggregationWindow window = windows.get(w);
+            long closedPane = now / window.slideMs - 1;
+            if (closedPane <= window.lastClosedPane)
+                continue;
+
+            // the first tick only closes the current window, earlier panes were never recorded
+            long oldestComplete = closedPane - 1;
+            long firstClosed = window.lastClosedPane < 0 ? closedPane : window.lastClosedPane + 1;
+            if (firstClosed < oldestComplete) {
+                skipped += oldestComplete - firstClosed;
+                firstClosed = oldestComplete;
+            }
+            window.lastClosedPane = closedPane;
+
+            for (long pane = firstClosed; pane <= closedPane; pane++)
+                aggregate(w, window, pane, aggregates);
+        }
+
+        // drop the keys that no window covers anymore
+        Iterator<KeyState> states = keys.values().iterator();
+        while (states.hasNext()) {
+            if (now - states.next().lastUpdate > retentionMs)
+                states.remove();
+        }
+        return aggregates;
+    }
+
+    private void aggregate(int w, AggregationWindow window, long closedPane, List<WindowAggregate> aggregates) {
+        long firstPane = closedPane - window.panes + 1;
+        for (Map.Entry<String, KeyState> entry : keys.entrySet()) {
+            Map<String, Statistics> statistics = new LinkedHashMap<>();
+            for (int i = 0; i < paths.size(); i++) {
+                Statistics combined = entry.getValue().combine(w, i, firstPane, closedPane);
+                if (combined != null)
+                    statistics.put(pathNames.get(i), combined);
+            }
+            if (!statistics.isEmpty()) {
+                aggregates.add(new WindowAggregate(entry.getKey(), entry.getValue().forkChannelName + "/agg/" + window.label,
+                        window.label, firstPane * window.slideMs, (closedPane + 1) * window.slideMs, statistics));
+            }
+        }
+    }
+
+    /**
+     * @return number of keys currently accumulated
+     */
+    public synchronized int size() {
+        return keys.size();
+    }
+
+    /**
+     * @return number of keys evicted to bound the memory
+     */
+    public synchronized long evicted() {
+        return evicted;
+    }
+
+    /**
+     * @return number of window closings skipped because {@link #tick(long)} ran more than one slide late
+     */
+    public synchronized long skipped() {
+        return skipped;
+    }
+
+    /**
+     * A tumbling or sliding window, split into panes of one slide
+     */
+    public static class AggregationWindow {
+        private final String label;
+        private final long sizeMs;
+        private final long slideMs;
+        private final int panes;
+        private long lastClosedPane = -1;
+
+        private AggregationWindow(String label, long sizeMs, long slideMs) {
+            if (sizeMs < 1 || slideMs < 1 || sizeMs % slideMs != 0)
+                throw new IllegalArgumentException("Window size must be a positive multiple of its slide: " + label);
+            if (slideMs < TICK_INTERVAL_MS)
+                throw new IllegalArgumentException("Window slide must be at least " + TICK_INTERVAL_MS + "ms: " + label);
+            this.label = label;
+            this.sizeMs = sizeMs;
+            this.slideMs = slideMs;
+            this.panes = (int) (sizeMs / slideMs);
+        }
+
+        /**
+         * @param window {@code <size>} or {@code <size>/<slide>}, e.g. {@code 1m} or {@code 5m/1m}
+         * @return the window
+         * @throws IllegalArgumentException if the window is malformed
+         */
+        public static AggregationWindow parse(String window) {
+            String[] fields = window.split("/");
+            if (fields.length > 2)
+                throw new IllegalArgumentException("Invalid aggregation window: " + window);
+            long size = PersistencePolicy.parseDurationMs(fields[0]);
+            long slide = fields.length == 2 ? PersistencePolicy.parseDurationMs(fields[1]) : size;
+            String label = fields.length == 2 ? fields[0].trim() + "-" + fields[1].trim() : fields[0].trim();
+            return new AggregationWindow(label, size, slide);
+        }
+
+        /**
+         * @return label of the window in the aggregate channel name, {@code <size>} or {@code <size>-<slide>}
+         */
+        public String label() {
+            return label;
+        }
+    }
+
+    /**
+     * Count, minimum, maximum and sum of the values of one field in one pane
+     */
+    private static class Accumulator {
+        private long pane = -1;
+        private long count;
+        private double min;
+        private double max;
+        private double sum;
+
+        private void reset(long newPane) {
+            pane = newPane;
+            count = 0;
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+            sum = 0;
+        }
+
+        private void add(double value) {
+            count++;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+        }
+    }
+
+    /**
+     * Accumulators of one key, as a ring of panes per window and field; the two extra slots hold the panes following
+     * the window until the window has been closed
+     */
+    private class KeyState {
+        private final String forkChannelName;
+        private final Accumulator[][][] accumulators;
+        private long lastUpdate;
+
+        private KeyState(String forkChannelName) {
+            this.forkChannelName = forkChannelName;
+            this.accumulators = new Accumulator[windows.size()][paths.size()][];
+            for (int w = 0; w < windows.size(); w++) {
+                for (int i = 0; i < paths.size(); i++)
+                    accumulators[w][i] = new Accumulator[windows.get(w).panes + 2];
+            }
+        }
+
+        private Accumulator accumulator(int window, int path, AggregationWindow aggregationWindow, long pane) {
+            Accumulator[] ring = accumulators[window][path];
+            int slot = (int) (pane % ring.length);
+            if (ring[slot] == null)
+                ring[slot] = new Accumulator();
+            if (ring[slot].pane != pane)
+                ring[slot].reset(pane);
+            return ring[slot];
+        }
+
+        private Statistics combine(int window, int path, long firstPane, long lastPane) {
+            long count = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0;
+            for (Accumulator accumulator : accumulators[window][path]) {
+                if (accumulator != null && accumulator.count > 0 && accumulator.pane >= firstPane && accumulator.pane <= lastPane) {
+                    count += accumulator.count;
+                    min = Math.min(min, accumulator.min);
+                    max = Math.max(max, accumulator.max);
+                    sum += accumulator.sum;
+                }
+            }
+            return count > 0 ? new Statistics(count, min, max, sum) : null;
+        }
+    }
+
+    /**
+     * Aggregate of the fields of one key over one window, published as JSON on the aggregate channel
+     */
+    public static class WindowAggregate {
+        private final String key;
+        private final String channel;
+        private final String window;
+        private final long start;
+        private final long end;
+        private final Map<String, Statistics> statistics;
+
+        WindowAggregate(String key, String channel, String window, long start, long end, Map<String, Statistics> statistics) {
+            this.key = key;
+            this.channel = channel;
+            this.window = window;
+            this.start = start;
+            this.end = end;
+            this.statistics = statistics;
+        }
+
+        /**
+         * @return the fork key
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return name of the aggregate channel, {@code <fork channel>/agg/<window>}
+         */
+        public String channel() {
+            return channel;
+        }
+
+        /**
+         * @return label of the window
+         */
+        public String getWindow() {
+            return window;
+        }
+
+        /**
+         * @return start of the window, in milliseconds since the epoch
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * @return end of the window (exclusive), in milliseconds since the epoch
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * @return statistics per aggregated path that had values in the window
+         */
+        public Map<String, Statistics> getStatistics() {
+            return statistics;
+        }
+    }
+
+    /**
+     * Statistics of the values of one field over a window
+     */
+    public static class Statistics {
+        private final long count;
+        private final double min;
+        private final double max;
+        private final double sum;
+
+        Statistics(long count, double min, double max, double sum) {
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.sum = sum;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        public double getMean() {
+            return sum / count;
+        }
+    }
+}
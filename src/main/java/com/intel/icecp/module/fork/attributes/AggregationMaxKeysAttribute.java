@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.fork.attributes;
+
+import com.intel.icecp.core.attributes.WriteableBaseAttribute;
+
+/**
+ * Used for creating an optional aggregation-max-keys attribute {@code AGGREGATION_MAX_KEYS} bounding the number of
+ * fork keys aggregated at a time; the least recently updated key is evicted beyond it.
+ * Eg: {@code "aggregation-max-keys" : 1024 }
+ *
+ */
+public class AggregationMaxKeysAttribute extends WriteableBaseAttribute<Integer> {
+    public static final String AGGREGATION_MAX_KEYS = "aggregation-max-keys";
+    /**
+     * Constructor to create the aggregationMaxKeys attribute with no value
+     */
+    public AggregationMaxKeysAttribute() {
+        super(AGGREGATION_MAX_KEYS, Integer.class);
+    }
+
+    /**
+     * Constructor to create the aggregationMaxKeys attribute with a value
+     * @param attributeValue value of the attribute
+     */
+    public AggregationMaxKeysAttribute(Integer attributeValue) {
+        this();
+        value(attributeValue);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.fork.attributes;
+
+import com.intel.icecp.core.attributes.WriteableBaseAttribute;
+
+/**
+ * Used for creating an optional aggregation-paths attribute {@code AGGREGATION_PATHS} listing, comma separated, the
+ * JsonPaths of numeric fields aggregated per fork key and published on {@code <fork channel>/agg/<window>}, see
+ * {@link com.intel.icecp.module.fork.WindowedAggregator}.
+ * Eg: {@code "aggregation-paths" : "$.value, $.temperature" }
+ *
+ */
+public class AggregationPathsAttribute extends WriteableBaseAttribute<String> {
+    public static final String AGGREGATION_PATHS = "aggregation-paths";
+    /**
+     * Constructor to create the aggregationPaths attribute with no value
+     */
+    public AggregationPathsAttribute() {
+        super(AGGREGATION_PATHS, String.class);
+    }
+
+    /**
+     * Constructor to create the aggregationPaths attribute with a value
+     * @param attributeValue value of the attribute
+     */
+    public AggregationPathsAttribute(String attributeValue) {
+        this();
+        value(attributeValue);
+    }
+}
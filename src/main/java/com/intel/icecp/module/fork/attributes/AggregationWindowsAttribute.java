@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.fork.attributes;
+
+import com.intel.icecp.core.attributes.WriteableBaseAttribute;
+
+/**
+ * Used for creating an optional aggregation-windows attribute {@code AGGREGATION_WINDOWS} listing, comma separated, the
+ * windows the aggregation-paths are aggregated over: {@code <size>} for tumbling and {@code <size>/<slide>} for sliding
+ * windows.
+ * Eg: {@code "aggregation-windows" : "1m, 5m/1m" }
+ *
+ */
+public class AggregationWindowsAttribute extends WriteableBaseAttribute<String> {
+    public static final String AGGREGATION_WINDOWS = "aggregation-windows";
+    /**
+     * Constructor to create the aggregationWindows attribute with no value
+     */
+    public AggregationWindowsAttribute() {
+        super(AGGREGATION_WINDOWS, String.class);
+    }
+
+    /**
+     * Constructor to create the aggregationWindows attribute with a value
+     * @param attributeValue value of the attribute
+     */
+    public AggregationWindowsAttribute(String attributeValue) {
+        this();
+        value(attributeValue);
+    }
+}
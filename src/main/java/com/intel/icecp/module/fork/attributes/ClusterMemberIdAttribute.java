@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.fork.attributes;
+
+import com.intel.icecp.core.attributes.WriteableBaseAttribute;
+
+/**
+ * Used for creating an optional cluster-member-id attribute {@code CLUSTER_MEMBER_ID} which enables cluster mode: the
+ * module only forks the keys that the consistent-hash ring of {@link ClusterMembersAttribute} assigns to this id.
+ * Eg: {@code "cluster-member-id" : "fork-a" }
+ *
+ */
+public class ClusterMemberIdAttribute extends WriteableBaseAttribute<String> {
+    public static final String CLUSTER_MEMBER_ID = "cluster-member-id";
+    /**
+     * Constructor to create the clusterMemberId attribute with no value
+     */
+    public ClusterMemberIdAttribute() {
+        super(CLUSTER_MEMBER_ID, String.class);
+    }
+
+    /**
+     * Constructor to create the clusterMemberId attribute with a value
+     * @param attributeValue value of the attribute
+     */
+    public ClusterMemberIdAttribute(String attributeValue) {
+        this();
+        value(attributeValue);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.fork.attributes;
+
+import com.intel.icecp.core.attributes.WriteableBaseAttribute;
+
+/**
+ * Used for creating an optional cluster-members attribute {@code CLUSTER_MEMBERS} listing, comma separated, the ids of
+ * all fork modules sharing the same incoming channel in cluster mode. The attribute may be updated at runtime when
+ * members join or leave.
+ * Eg: {@code "cluster-members" : "fork-a, fork-b, fork-c" }
+ *
+ */
+public class ClusterMembersAttribute extends WriteableBaseAttribute<String> {
+    public static final String CLUSTER_MEMBERS = "cluster-members";
+    /**
+     * Constructor to create the clusterMembers attribute with no value
+     */
+    public ClusterMembersAttribute() {
+        super(CLUSTER_MEMBERS, String.class);
+    }
+
+    /**
+     * Constructor to create the clusterMembers attribute with a value
+     * @param attributeValue value of the attribute
+     */
+    public ClusterMembersAttribute(String attributeValue) {
+        this();
+        value(attributeValue);
+    }
+}
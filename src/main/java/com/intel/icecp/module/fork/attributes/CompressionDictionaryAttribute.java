@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.fork.attributes;
+
+import com.intel.icecp.core.attributes.WriteableBaseAttribute;
+
+/**
+ * Used for creating an optional compression-dictionary attribute {@code COMPRESSION_DICTIONARY} holding a Base64
+ * encoded preset dictionary. When set, messages published on the forked channels are compressed with this dictionary
+ * and consumers must decompress them with the same one.
+ * Eg: {@code "compression-dictionary" : "InNlbnNvcmlkZW50aWZpZXIiOiI="}
+ *
+ */
+public class CompressionDictionaryAttribute extends WriteableBaseAttribute<String> {
+    public static final String COMPRESSION_DICTIONARY = "compression-dictionary";
+    /**
+     * Constructor to create the compressionDictionary attribute with no value
+     */
+    public CompressionDictionaryAttribute() {
+        super(COMPRESSION_DICTIONARY, String.class);
+    }
+
+    /**
+     * Constructor to create the compressionDictionary attribute with a value
+     * @param attributeValue value of the attribute
+     */
+    public CompressionDictionaryAttribute(String attributeValue) {
+        this();
+        value(attributeValue);
+    }
+}
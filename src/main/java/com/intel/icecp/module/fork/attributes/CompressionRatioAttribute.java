@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2016 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.fork.attributes;
+
+import com.intel.icecp.core.attributes.WriteableBaseAttribute;
+
+/**
+ * Used for creating a compression-ratio attribute {@code COMPRESSION_RATIO} to output the ratio of uncompressed to
+ * compressed bytes published on the forked channels
+ *
+ */
+public class CompressionRatioAttribute extends WriteableBaseAttribute<Double> {
+    public static final String COMPRESSION_RATIO = "compression-ratio";
+
+    /**
+     * Constructor to create the compressionRatio attribute with no value
+     */
+    public CompressionRatioAttribute() {
+        super(COMPRESSION_RATIO, Double.class);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.fork.attributes;
+
+import com.intel.icecp.core.attributes.WriteableBaseAttribute;
+
+/**
+ * Used for creating an optional dead-letter-channel attribute {@code DEAD_LETTER_CHANNEL} naming the channel, relative
+ * to the node URI, on which messages that could not be forked are written in batches together with a reason code.
+ * Eg: {@code "dead-letter-channel" : "/FORK-DEAD-LETTERS" }
+ *
+ */
+public class DeadLetterChannelAttribute extends WriteableBaseAttribute<String> {
+    public static final String DEAD_LETTER_CHANNEL = "dead-letter-channel";
+    /**
+     * Constructor to create the deadLetterChannel attribute with no value
+     */
+    public DeadLetterChannelAttribute() {
+        super(DEAD_LETTER_CHANNEL, String.class);
+    }
+
+    /**
+     * Constructor to create the deadLetterChannel attribute with a value
+     * @param attributeValue value of the attribute
+     */
+    public DeadLetterChannelAttribute(String attributeValue) {
+        this();
+        value(attributeValue);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.fork.attributes;
+
+import com.intel.icecp.core.attributes.WriteableBaseAttribute;
+
+import java.util.Map;
+
+/**
+ * Used for creating a dead-letter-counts attribute {@code DEAD_LETTER_COUNTS} to output the number of messages that
+ * could not be forked, per reason code
+ *
+ */
+public class DeadLetterCountsAttribute extends WriteableBaseAttribute<Map<String, Long>> {
+    public static final String DEAD_LETTER_COUNTS = "dead-letter-counts";
+    private Map<String, Long> value;
+
+    /**
+     * Constructor to create the deadLetterCounts attribute with no value
+     */
+    public DeadLetterCountsAttribute() {
+        super(DEAD_LETTER_COUNTS, Map.class);
+    }
+
+    @Override
+    public void value(Map<String, Long> newValue) {
+       value = newValue;
+    }
+
+    @Override
+    public Map<String, Long> value() {
+        return value;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.fork.attributes;
+
+import com.intel.icecp.core.attributes.WriteableBaseAttribute;
+
+/**
+ * Used for creating an optional default-channel-lanes attribute {@code DEFAULT_CHANNEL_LANES} which, when no
+ * message-filter is configured, spreads the passthrough messages round-robin over this many default channels:
+ * {@code /DEFAULT-DATA}, {@code /DEFAULT-DATA-1}, ... Messages on different lanes are not ordered with each other.
+ * Eg: {@code "default-channel-lanes" : 4 }
+ *
+ */
+public class DefaultChannelLanesAttribute extends WriteableBaseAttribute<Integer> {
+    public static final String DEFAULT_CHANNEL_LANES = "default-channel-lanes";
+    /**
+     * Constructor to create the defaultChannelLanes attribute with no value
+     */
+    public DefaultChannelLanesAttribute() {
+        super(DEFAULT_CHANNEL_LANES, Integer.class);
+    }
+
+    /**
+     * Constructor to create the defaultChannelLanes attribute with a value
+     * @param attributeValue value of the attribute
+     */
+    public DefaultChannelLanesAttribute(Integer attributeValue) {
+        this();
+        value(attributeValue);
+    }
+}
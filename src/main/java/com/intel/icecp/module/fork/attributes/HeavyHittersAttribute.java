@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.fork.attributes;
+
+import com.intel.icecp.core.attributes.WriteableBaseAttribute;
+import com.intel.icecp.module.fork.HeavyHitterSketch.HeavyHitter;
+
+import java.util.List;
+
+/**
+ * Used for creating a heavy-hitters attribute {@code HEAVY_HITTERS} to output the fork keys dominating the traffic
+ * in the last completed window, with their message and byte rates
+ *
+ */
+public class HeavyHittersAttribute extends WriteableBaseAttribute<List<HeavyHitter>> {
+    public static final String HEAVY_HITTERS = "heavy-hitters";
+    private List<HeavyHitter> value;
+
+    /**
+     * Constructor to create the heavyHitters attribute with no value
+     */
+    public HeavyHittersAttribute() {
+        super(HEAVY_HITTERS, List.class);
+    }
+
+    @Override
+    public void value(List<HeavyHitter> newValue) {
+       value = newValue;
+    }
+
+    @Override
+    public List<HeavyHitter> value() {
+        return value;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.fork.attributes;
+
+import com.intel.icecp.core.attributes.WriteableBaseAttribute;
+
+/**
+ * Used for creating an optional persistence-rules attribute {@code PERSISTENCE_RULES} choosing the persistence of the
+ * forked channels by fork key, as {@code ;} separated {@code <key pattern>=<retention>} entries, see
+ * {@link com.intel.icecp.module.fork.PersistencePolicy}.
+ * Eg: {@code "persistence-rules" : "FREEZER_*=7d; DIAG_*=none; *=default" }
+ *
+ */
+public class PersistenceRulesAttribute extends WriteableBaseAttribute<String> {
+    public static final String PERSISTENCE_RULES = "persistence-rules";
+    /**
+     * Constructor to create the persistenceRules attribute with no value
+     */
+    public PersistenceRulesAttribute() {
+        super(PERSISTENCE_RULES, String.class);
+    }
+
+    /**
+     * Constructor to create the persistenceRules attribute with a value
+     * @param attributeValue value of the attribute
+     */
+    public PersistenceRulesAttribute(String attributeValue) {
+        this();
+        value(attributeValue);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.fork.attributes;
+
+import com.intel.icecp.core.attributes.WriteableBaseAttribute;
+
+/**
+ * Used for creating an optional priority-classes attribute {@code PRIORITY_CLASSES} which defines the priority lanes
+ * in front of forked publishing, see {@link com.intel.icecp.module.fork.PriorityClass} for the format.
+ * Eg: {@code "priority-classes" : "alarm:8:256:$.type=door-alarm; bulk:1:1024" }
+ *
+ */
+public class PriorityClassesAttribute extends WriteableBaseAttribute<String> {
+    public static final String PRIORITY_CLASSES = "priority-classes";
+    /**
+     * Constructor to create the priorityClasses attribute with no value
+     */
+    public PriorityClassesAttribute() {
+        super(PRIORITY_CLASSES, String.class);
+    }
+
+    /**
+     * Constructor to create the priorityClasses attribute with a value
+     * @param attributeValue value of the attribute
+     */
+    public PriorityClassesAttribute(String attributeValue) {
+        this();
+        value(attributeValue);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.fork.attributes;
+
+import com.intel.icecp.core.attributes.WriteableBaseAttribute;
+
+/**
+ * Used for creating an optional priority-scheduling attribute {@code PRIORITY_SCHEDULING} which selects how the
+ * priority lanes are served: {@code strict} always serves the highest priority lane first, {@code weighted} (the
+ * default) shares the publishing capacity between lanes according to their weights.
+ *
+ */
+public class PrioritySchedulingAttribute extends WriteableBaseAttribute<String> {
+    public static final String PRIORITY_SCHEDULING = "priority-scheduling";
+    /**
+     * Constructor to create the priorityScheduling attribute with no value
+     */
+    public PrioritySchedulingAttribute() {
+        super(PRIORITY_SCHEDULING, String.class);
+    }
+
+    /**
+     * Constructor to create the priorityScheduling attribute with a value
+     * @param attributeValue value of the attribute
+     */
+    public PrioritySchedulingAttribute(String attributeValue) {
+        this();
+        value(attributeValue);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.fork.attributes;
+
+import com.intel.icecp.core.attributes.WriteableBaseAttribute;
+
+/**
+ * Used for creating an optional publish-window attribute {@code PUBLISH_WINDOW} which enables asynchronous publishing
+ * on the forked channels, allowing at most this many queued or in-flight publishes per forked channel.
+ * Eg: {@code "publish-window" : 64 }
+ *
+ */
+public class PublishWindowAttribute extends WriteableBaseAttribute<Integer> {
+    public static final String PUBLISH_WINDOW = "publish-window";
+    /**
+     * Constructor to create the publishWindow attribute with no value
+     */
+    public PublishWindowAttribute() {
+        super(PUBLISH_WINDOW, Integer.class);
+    }
+
+    /**
+     * Constructor to create the publishWindow attribute with a value
+     * @param attributeValue value of the attribute
+     */
+    public PublishWindowAttribute(Integer attributeValue) {
+        this();
+        value(attributeValue);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.fork.attributes;
+
+import com.intel.icecp.core.attributes.WriteableBaseAttribute;
+import com.intel.icecp.module.fork.PublishPipeline.Saturation;
+
+import java.util.Map;
+
+/**
+ * Used for creating a publish-window-saturation attribute {@code PUBLISH_WINDOW_SATURATION} to output, per forked
+ * channel, the number of messages rejected because the publish window of the channel was full and the occupancy of
+ * the window
+ *
+ */
+public class PublishWindowSaturationAttribute extends WriteableBaseAttribute<Map<String, Saturation>> {
+    public static final String PUBLISH_WINDOW_SATURATION = "publish-window-saturation";
+    private Map<String, Saturation> value;
+
+    /**
+     * Constructor to create the publishWindowSaturation attribute with no value
+     */
+    public PublishWindowSaturationAttribute() {
+        super(PUBLISH_WINDOW_SATURATION, Map.class);
+    }
+
+    @Override
+    public void value(Map<String, Saturation> newValue) {
+       value = newValue;
+    }
+
+    @Override
+    public Map<String, Saturation> value() {
+        return value;
+    }
+}
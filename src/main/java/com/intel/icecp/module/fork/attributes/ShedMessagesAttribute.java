@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2016 Intel Corporation 
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intel.icecp.module.fork.attributes;
+
+import com.intel.icecp.core.attributes.WriteableBaseAttribute;
+
+import java.util.Map;
+
+/**
+ * Used for creating a shed-messages attribute {@code SHED_MESSAGES} to output the number of messages shed per priority
+ * lane because the lane was full
+ *
+ */
+public class ShedMessagesAttribute extends WriteableBaseAttribute<Map<String, Long>> {
+    public static final String SHED_MESSAGES = "shed-messages";
+    private Map<String, Long> value;
+
+    /**
+     * Constructor to create the shedMessages attribute with no value
+     */
+    public ShedMessagesAttribute() {
+        super(SHED_MESSAGES, Map.class);
+    }
+
+    @Override
+    public void value(Map<String, Long> newValue) {
+       value = newValue;
+    }
+
+    @Override
+    public Map<String, Long> value() {
+        return value;
+    }
+}
@@ -0,0 +1,81 @@
+package com.intel.icecp.module.fork;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the consistent-hash ring of the fork cluster mode
+ *
+ */
+public class ConsistentHashRingTest {
+    private static final int KEYS = 10000;
+
+    @Test
+    public void testEmptyRingHasNoOwner() {
+        assertNull(new ConsistentHashRing(16).owner("SENSOR_1"));
+    }
+
+    @Test
+    public void testParseMembersIgnoresBlanks() {
+        assertEquals(3, ConsistentHashRing.parseMembers(" fork-a, fork-b,,fork-c ").size());
+        assertTrue(ConsistentHashRing.parseMembers(null).isEmpty());
+    }
+
+    @Test
+    public void testKeysAreSpreadOverMembers() {
+        ConsistentHashRing ring = ring("fork-a", "fork-b", "fork-c");
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++)
+            counts.merge(ring.owner("SENSOR_" + i), 1, Integer::sum);
+
+        assertEquals(3, counts.size());
+        counts.values().forEach(count -> assertTrue("Unbalanced ring: " + counts, count > KEYS / 5));
+    }
+
+    @Test
+    public void testJoiningMemberOnlyTakesKeysFromOthers() {
+        ConsistentHashRing before = ring("fork-a", "fork-b", "fork-c");
+        ConsistentHashRing after = ring("fork-a", "fork-b", "fork-c", "fork-d");
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String oldOwner = before.owner("SENSOR_" + i);
+            String newOwner = after.owner("SENSOR_" + i);
+            if (!oldOwner.equals(newOwner)) {
+                assertEquals("fork-d", newOwner);
+                moved++;
+            }
+        }
+        // about a quarter of the keys move to the new member, and no other keys move
+        assertTrue("Moved " + moved, moved > KEYS / 8 && moved < KEYS * 3 / 8);
+    }
+
+    @Test
+    public void testLeavingMemberOnlyGivesAwayItsOwnKeys() {
+        ConsistentHashRing ring = ring("fork-a", "fork-b", "fork-c");
+        Map<String, String> owners = new HashMap<>();
+        for (int i = 0; i < KEYS; i++)
+            owners.put("SENSOR_" + i, ring.owner("SENSOR_" + i));
+
+        ring.setMembers(Arrays.asList("fork-a", "fork-c"));
+
+        owners.forEach((key, oldOwner) -> {
+            if (!oldOwner.equals("fork-b"))
+                assertEquals(oldOwner, ring.owner(key));
+        });
+    }
+
+    private static ConsistentHashRing ring(String... members) {
+        ConsistentHashRing ring = new ConsistentHashRing(160);
+        ring.setMembers(Arrays.asList(members));
+        return ring;
+    }
+}
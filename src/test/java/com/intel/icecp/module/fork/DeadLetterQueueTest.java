@@ -0,0 +1,133 @@
+package com.intel.icecp.module.fork;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.icecp.core.Channel;
+import com.intel.icecp.core.Message;
+import com.intel.icecp.core.messages.BytesMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for the dead-letter queue of messages that could not be forked
+ *
+ */
+public class DeadLetterQueueTest {
+    private static final long FLUSH_INTERVAL_MS = 60000;
+
+    @Mock
+    private Channel<Message> mockDeadLetterChannel;
+
+    private DeadLetterQueue deadLetters;
+
+    @Before
+    public void before() {
+        MockitoAnnotations.initMocks(this);
+        deadLetters = new DeadLetterQueue(2, 4, FLUSH_INTERVAL_MS);
+    }
+
+    @After
+    public void after() {
+        deadLetters.close();
+    }
+
+    @Test
+    public void testDeadLettersAreCountedPerReason() {
+        deadLetters.record(DeadLetterReason.MALFORMED_MESSAGE, 1, null, message("a"));
+        deadLetters.record(DeadLetterReason.MALFORMED_MESSAGE, 2, null, message("b"));
+        deadLetters.record(DeadLetterReason.MISSING_FILTER_PATH, 3, null, message("c"));
+
+        Map<String, Long> counts = deadLetters.counts();
+        assertEquals(Long.valueOf(2), counts.get(DeadLetterReason.MALFORMED_MESSAGE.code()));
+        assertEquals(Long.valueOf(1), counts.get(DeadLetterReason.MISSING_FILTER_PATH.code()));
+        assertEquals(Long.valueOf(0), counts.get(DeadLetterReason.PUBLISH_FAILED.code()));
+    }
+
+    @Test
+    public void testNothingIsWrittenBeforeBatchIsFull() throws Exception {
+        deadLetters.start(mockDeadLetterChannel, counts -> { });
+
+        deadLetters.record(DeadLetterReason.EMPTY_KEY, 1, null, message("a"));
+
+        verify(mockDeadLetterChannel, never()).publish(any(Message.class));
+    }
+
+    @Test
+    public void testFullBatchIsWrittenAsOneMessage() throws Exception {
+        deadLetters.start(mockDeadLetterChannel, counts -> { });
+
+        deadLetters.record(DeadLetterReason.PUBLISH_FAILED, 1, "ndn:/test-fork/SENSOR_1", message("first"));
+        deadLetters.record(DeadLetterReason.MISSING_FILTER_PATH, 2, null, message("second"));
+
+        // the batch is written by the flusher thread, not by the caller
+        ArgumentCaptor<Message> captor = ArgumentCaptor.forClass(Message.class);
+        verify(mockDeadLetterChannel, timeout(1000).times(1)).publish(captor.capture());
+        JsonNode batch = new ObjectMapper().readTree(((BytesMessage) captor.getValue()).getBytes());
+        assertEquals(2, batch.size());
+        assertEquals("publish-failed", batch.get(0).get("reason").asText());
+        assertEquals("ndn:/test-fork/SENSOR_1", batch.get(0).get("channel").asText());
+        assertArrayEquals("second".getBytes(), Base64.getDecoder().decode(batch.get(1).get("message").asText()));
+    }
+
+    @Test
+    public void testCloseWritesRemainingDeadLetters() throws Exception {
+        deadLetters.start(mockDeadLetterChannel, counts -> { });
+        deadLetters.record(DeadLetterReason.SHED, 1, null, message("a"));
+
+        deadLetters.close();
+
+        verify(mockDeadLetterChannel, times(1)).publish(any(Message.class));
+    }
+
+    @Test
+    public void testDeadLettersBeyondBufferAreOnlyCounted() throws Exception {
+        deadLetters = new DeadLetterQueue(8, 2, FLUSH_INTERVAL_MS);
+        deadLetters.start(mockDeadLetterChannel, counts -> { });
+
+        for (int i = 0; i < 5; i++)
+            deadLetters.record(DeadLetterReason.WINDOW_FULL, i, null, message("m" + i));
+
+        assertEquals(5, deadLetters.count(DeadLetterReason.WINDOW_FULL));
+        assertEquals(3, deadLetters.dropped());
+        assertEquals(Long.valueOf(3), deadLetters.counts().get(DeadLetterQueue.DROPPED));
+    }
+
+    @Test
+    public void testFullBatchIsNotWrittenOnCallerThread() throws Exception {
+        Thread caller = Thread.currentThread();
+        AtomicReference<Thread> writer = new AtomicReference<>();
+        doAnswer(invocation -> {
+            writer.set(Thread.currentThread());
+            return null;
+        }).when(mockDeadLetterChannel).publish(any(Message.class));
+        deadLetters.start(mockDeadLetterChannel, counts -> { });
+
+        deadLetters.record(DeadLetterReason.SHED, 1, null, message("a"));
+        deadLetters.record(DeadLetterReason.SHED, 2, null, message("b"));
+
+        verify(mockDeadLetterChannel, timeout(1000).times(1)).publish(any(Message.class));
+        assertNotSame(caller, writer.get());
+    }
+
+    private static BytesMessage message(String content) {
+        return new BytesMessage(content.getBytes());
+    }
+}
@@ -0,0 +1,121 @@
+package com.intel.icecp.module.fork;
+
+import com.intel.icecp.core.messages.BytesMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the dictionary compressor of forked payloads
+ *
+ */
+public class DictionaryCompressorTest {
+    private List<byte[]> samples;
+    private DictionaryCompressor compressor;
+
+    @Before
+    public void before() {
+        samples = new ArrayList<>();
+        for (int i = 0; i < 50; i++)
+            samples.add(sampleMessage(i));
+        compressor = new DictionaryCompressor(DictionaryCompressor.train(samples, 1024));
+    }
+
+    @After
+    public void after() {
+        compressor.close();
+    }
+
+    @Test
+    public void testCompressedMessageDecompressesToOriginal() throws Exception {
+        BytesMessage message = new BytesMessage(sampleMessage(1234));
+
+        BytesMessage compressed = compressor.compress(message);
+
+        assertArrayEquals(message.getBytes(), compressor.decompress(compressed).getBytes());
+    }
+
+    @Test
+    public void testCompressedPayloadsAreRecognized() {
+        byte[] message = sampleMessage(1234);
+
+        assertTrue(compressor.isCompressed(compressor.compress(message)));
+        assertFalse(compressor.isCompressed(message));
+        assertFalse(compressor.isCompressed(deflate(message)));
+        try (DictionaryCompressor other = new DictionaryCompressor("another dictionary".getBytes(StandardCharsets.UTF_8))) {
+            assertFalse(other.isCompressed(compressor.compress(message)));
+        }
+    }
+
+    @Test
+    public void testDictionaryCompressesBetterThanPlainDeflate() {
+        byte[] message = sampleMessage(4321);
+
+        byte[] plain = deflate(message);
+        byte[] compressed = compressor.compress(message);
+
+        assertTrue(compressed.length < plain.length);
+        assertTrue(compressor.compressionRatio() > 1.0);
+    }
+
+    @Test
+    public void testTrainedDictionaryRespectsMaxSize() {
+        assertTrue(DictionaryCompressor.train(samples, 100).length <= 100);
+    }
+
+    @Test
+    public void testCompressionRatioIsOneBeforeAnyCompression() {
+        assertEquals(1.0, compressor.compressionRatio(), 0.0);
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void testDecompressWithDifferentDictionaryThrowsException() throws Exception {
+        byte[] compressed = compressor.compress(sampleMessage(1));
+
+        try (DictionaryCompressor other = new DictionaryCompressor("unrelated dictionary".getBytes(StandardCharsets.UTF_8))) {
+            other.decompress(compressed);
+        }
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void testDecompressTruncatedPayloadThrowsException() throws Exception {
+        byte[] compressed = compressor.compress(sampleMessage(1));
+        byte[] truncated = new byte[compressed.length / 2];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+
+        compressor.decompress(truncated);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyDictionaryThrowsException() {
+        new DictionaryCompressor(new byte[0]);
+    }
+
+    private static byte[] sampleMessage(int i) {
+        return ("{\"datetime\":\"2015-11-01T17:57:" + (i % 60) + "-0700\",\"deviceidentifier\":\"00137a0018cdd\"," +
+                "\"protocol\":{\"id\":1,\"name\":\"SunsetPassDEX\",\"type\":31},\"sensoridentifier\":\"SUNSETPASSDEX_" + i +
+                "\",\"type\":\"sensor\",\"value\":\"" + (i * 7) + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[data.length * 2];
+        int length = deflater.deflate(buffer);
+        deflater.end();
+        return Arrays.copyOf(buffer, length);
+    }
+}
@@ -1,5 +1,6 @@
 package com.intel.icecp.module.fork;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.intel.icecp.core.Attribute;
 import com.intel.icecp.core.Channel;
@@ -15,20 +16,34 @@ import com.intel.icecp.core.attributes.ModuleStateAttribute;
 import com.intel.icecp.core.messages.BytesMessage;
 import com.intel.icecp.core.metadata.Persistence;
 import com.intel.icecp.core.misc.ChannelIOException;
+import com.intel.icecp.module.fork.attributes.AggregationPathsAttribute;
+import com.intel.icecp.module.fork.attributes.AggregationWindowsAttribute;
+import com.intel.icecp.module.fork.attributes.ClusterMemberIdAttribute;
+import com.intel.icecp.module.fork.attributes.ClusterMembersAttribute;
+import com.intel.icecp.module.fork.attributes.CompressionDictionaryAttribute;
+import com.intel.icecp.module.fork.attributes.CompressionRatioAttribute;
+import com.intel.icecp.module.fork.attributes.DefaultChannelLanesAttribute;
 import com.intel.icecp.module.fork.attributes.ForkedChannelsAttribute;
 import com.intel.icecp.module.fork.attributes.IncomingChannelAttribute;
 import com.intel.icecp.module.fork.attributes.MessageFilterAttribute;
+import com.intel.icecp.module.fork.attributes.PersistenceRulesAttribute;
 import com.intel.icecp.node.AttributesFactory;
 import com.intel.icecp.node.NodeFactory;
 import com.intel.icecp.node.utils.ChannelUtils;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -36,12 +51,16 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -163,6 +182,64 @@ public class ForkModuleTest {
         verify(mockNode, times(1)).openChannel(eq(new URI("test-fork/SUNSETPASSTAP_1")), (Class<BytesMessage>)any(), any(Persistence.class));
     }
 
+    @Test
+    public void testForkedChannelIsOpenedWithPersistenceOfMatchingRule() throws Exception {
+        when(mockNode.openChannel(any(URI.class), (Class<BytesMessage>)any(), any(Persistence.class))).thenReturn(mockResponseChannel);
+        when(mockAttributes.has(PersistenceRulesAttribute.PERSISTENCE_RULES)).thenReturn(true);
+        when(mockAttributes.get(PersistenceRulesAttribute.PERSISTENCE_RULES, String.class)).thenReturn("SUNSET*=none; *=1h");
+        startMockForkModule();
+
+        waitForFork();
+        String sampleMessage = "{\"datetime\":\"2015-11-01T17:57:53-0700\",\"deviceidentifier\":\"00137a0018cdd\",\"protocol\":{\"id\":1," +
+                "\"name\":\"SunsetPassDEX\",\"type\":31},\"sensoridentifier\":\"SUNSETPASSDEX_1\",\"type\":\"sensor\",\"value\":\"\"}";
+        BytesMessage message = createSampleMessage(sampleMessage);
+
+        ForkModule.IncomingMessageCallback callback = forkModule.new IncomingMessageCallback(testForkURI, "$.sensoridentifier");
+        callback.onPublish(message);
+
+        ArgumentCaptor<Persistence> persistence = ArgumentCaptor.forClass(Persistence.class);
+        verify(mockNode, times(1)).openChannel(eq(new URI("test-fork/SUNSETPASSDEX_1")), (Class<BytesMessage>)any(), persistence.capture());
+        assertEquals(0, forkModule.persistencePolicy.retentionMs("SUNSETPASSDEX_1"));
+        assertSame(forkModule.persistencePolicy.forKey("SUNSETPASSDEX_1"), persistence.getValue());
+        assertNotSame(forkModule.persistencePolicy.forKey("OTHER_1"), persistence.getValue());
+    }
+
+    @Test
+    public void testAggregatesArePublishedOnAggregateChannelOfTheForkedChannel() throws Exception {
+        Channel<Message> aggregateChannel = mock(Channel.class);
+        URI aggregateUri = new URI("test-fork/SUNSETPASSDEX_1/agg/1s");
+        when(mockNode.openChannel(any(URI.class), (Class<BytesMessage>)any(), any(Persistence.class))).thenReturn(mockResponseChannel);
+        when(mockNode.openChannel(eq(aggregateUri), (Class<Message>)any(), any(Persistence.class))).thenReturn(aggregateChannel);
+        when(mockAttributes.has(PersistenceRulesAttribute.PERSISTENCE_RULES)).thenReturn(true);
+        when(mockAttributes.get(PersistenceRulesAttribute.PERSISTENCE_RULES, String.class)).thenReturn("SUNSET*=none; *=1h");
+        when(mockAttributes.has(AggregationPathsAttribute.AGGREGATION_PATHS)).thenReturn(true);
+        when(mockAttributes.get(AggregationPathsAttribute.AGGREGATION_PATHS, String.class)).thenReturn("$.protocol.type");
+        when(mockAttributes.has(AggregationWindowsAttribute.AGGREGATION_WINDOWS)).thenReturn(true);
+        when(mockAttributes.get(AggregationWindowsAttribute.AGGREGATION_WINDOWS, String.class)).thenReturn("1s");
+        startMockForkModule();
+
+        waitForFork();
+        ForkModule.IncomingMessageCallback callback = forkModule.new IncomingMessageCallback(testForkURI, "$.sensoridentifier");
+        callback.onPublish(createSampleMessage(samplePayload(1)));
+
+        // the one second window is closed by the next tick of the aggregation ticker after it ends
+        ArgumentCaptor<Persistence> persistence = ArgumentCaptor.forClass(Persistence.class);
+        verify(mockNode, timeout(3000)).openChannel(eq(aggregateUri), (Class<Message>)any(), persistence.capture());
+        assertSame(forkModule.persistencePolicy.forKey("SUNSETPASSDEX_1"), persistence.getValue());
+
+        ArgumentCaptor<Message> published = ArgumentCaptor.forClass(Message.class);
+        verify(aggregateChannel, timeout(3000)).publish(published.capture());
+        JsonNode aggregate = new ObjectMapper().readTree(((BytesMessage) published.getValue()).getBytes());
+        assertEquals("SUNSETPASSDEX_1", aggregate.get("key").asText());
+        assertEquals("1s", aggregate.get("window").asText());
+        assertEquals(1000, aggregate.get("end").asLong() - aggregate.get("start").asLong());
+        JsonNode statistics = aggregate.get("statistics").get("$.protocol.type");
+        assertEquals(1, statistics.get("count").asLong());
+        assertEquals(31, statistics.get("min").asDouble(), 0);
+        assertEquals(31, statistics.get("max").asDouble(), 0);
+        assertEquals(31, statistics.get("mean").asDouble(), 0);
+    }
+
     @Test
     public void testAttributesAddThrowsException() throws Exception {
         doThrow(new AttributeRegistrationException("testMessage", new Exception())).when(mockAttributes).add(any(Attribute.class));
@@ -222,8 +299,8 @@ public class ForkModuleTest {
         BytesMessage testMessage = new BytesMessage("...".getBytes());
         incomingChannel.publish(testMessage);
 
-        assertNotNull(ForkModule.defaultChannel);
-        assertArrayEquals(testMessage.getBytes(), ((BytesMessage) ForkModule.defaultChannel.latest().get()).getBytes());
+        assertNotNull(forkModule.defaultChannels[0]);
+        assertArrayEquals(testMessage.getBytes(), ((BytesMessage) forkModule.defaultChannels[0].latest().get()).getBytes());
     }
 
     @Test
@@ -235,15 +312,35 @@ public class ForkModuleTest {
 
         Channel<BytesMessage> incomingChannel = openChannel(this.incomingChannel);
         incomingChannel.publish(new BytesMessage("msg_1".getBytes()));
-        Channel<Message> defaultChannel_msg_1 = ForkModule.defaultChannel;
+        Channel<Message> defaultChannel_msg_1 = forkModule.defaultChannels[0];
 
         BytesMessage testMessage_2 = new BytesMessage("msg_2".getBytes());
         incomingChannel.publish(testMessage_2);
-        Channel<Message> defaultChannel_msg_2 = ForkModule.defaultChannel;
+        Channel<Message> defaultChannel_msg_2 = forkModule.defaultChannels[0];
 
-        assertNotNull(ForkModule.defaultChannel);
+        assertNotNull(forkModule.defaultChannels[0]);
         assertEquals(defaultChannel_msg_1, defaultChannel_msg_2);
-        assertArrayEquals(testMessage_2.getBytes(), ((BytesMessage) ForkModule.defaultChannel.latest().get()).getBytes());
+        assertArrayEquals(testMessage_2.getBytes(), ((BytesMessage) forkModule.defaultChannels[0].latest().get()).getBytes());
+    }
+
+    @Test
+    public void testPassthroughMessagesAreSpreadOverDefaultChannelLanes() throws Exception {
+        attributes.add(new MessageFilterAttribute(""));
+        attributes.add(new DefaultChannelLanesAttribute(2));
+        startForkModule();
+
+        waitForFork();
+
+        assertEquals(2, forkModule.defaultChannels.length);
+        Channel<BytesMessage> incomingChannel = openChannel(this.incomingChannel);
+        BytesMessage testMessage_1 = new BytesMessage("msg_1".getBytes());
+        BytesMessage testMessage_2 = new BytesMessage("msg_2".getBytes());
+        incomingChannel.publish(testMessage_1);
+        incomingChannel.publish(testMessage_2);
+
+        // the first message goes to lane 1, the second to lane 0
+        assertArrayEquals(testMessage_1.getBytes(), ((BytesMessage) forkModule.defaultChannels[1].latest().get()).getBytes());
+        assertArrayEquals(testMessage_2.getBytes(), ((BytesMessage) forkModule.defaultChannels[0].latest().get()).getBytes());
     }
 
     @Test
@@ -267,6 +364,47 @@ public class ForkModuleTest {
         assertArrayEquals(message.getBytes(), forkChannel.latest().get().getBytes());
     }
 
+    @Test
+    public void testForkedMessageIsCompressedWithConfiguredDictionary() throws Exception {
+        // the dictionary is trained from sampled MQTT payloads of other sensors, as documented
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 2; i < 50; i++)
+            samples.add(samplePayload(i).getBytes(StandardCharsets.UTF_8));
+        byte[] dictionary = DictionaryCompressor.train(samples, 1024);
+        attributes.add(new MessageFilterAttribute("$.sensoridentifier"));
+        attributes.add(new CompressionDictionaryAttribute(Base64.getEncoder().encodeToString(dictionary)));
+
+        startForkModule();
+
+        waitForFork();
+
+        String samplePayload = samplePayload(1);
+        Channel<BytesMessage> incomingChannel = openChannel(this.incomingChannel);
+        incomingChannel.publish(createSampleMessage(samplePayload));
+
+        URI testForkChannel = ChannelUtils.join(this.incomingChannel, "/SUNSETPASSDEX_1");
+        Channel<BytesMessage> forkChannel = openChannel(testForkChannel);
+        // forked messages stay MQTT messages, only their payload is compressed
+        MqttMessage published = new ObjectMapper().readValue(forkChannel.latest().get().getBytes(), MqttMessage.class);
+
+        byte[] payload = samplePayload.getBytes(StandardCharsets.UTF_8);
+        try (DictionaryCompressor consumer = new DictionaryCompressor(dictionary)) {
+            assertTrue(consumer.isCompressed(published.getPayload()));
+            assertTrue("payload of " + payload.length + " bytes compressed to " + published.getPayload().length,
+                    published.getPayload().length * 2 < payload.length);
+            assertArrayEquals(payload, consumer.decompress(published.getPayload()));
+        }
+
+        // the ratio is refreshed periodically
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!attributes.has(CompressionRatioAttribute.COMPRESSION_RATIO) ||
+                attributes.get(CompressionRatioAttribute.COMPRESSION_RATIO, Double.class) == null) {
+            assertTrue("compression-ratio was not refreshed", System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+        assertTrue(attributes.get(CompressionRatioAttribute.COMPRESSION_RATIO, Double.class) > 2.0);
+    }
+
     @Test
     public void testMessageUpdatesForkedChannelsAttributeSuccess() throws Exception {
         attributes.add(new MessageFilterAttribute("$.sensoridentifier"));
@@ -360,7 +498,7 @@ public class ForkModuleTest {
 
         waitForFork();
 
-        assertFalse(ForkModule.defaultChannel.isOpen());
+        assertFalse(forkModule.defaultChannels[0].isOpen());
     }
 
     @Test
@@ -407,6 +545,41 @@ public class ForkModuleTest {
         }
     }
 
+    @Test
+    public void testInvalidMessageFilterPutsModuleInErrorState() throws Exception {
+        attributes.add(new MessageFilterAttribute("$.sensoridentifier["));
+
+        forkModule.run(node, attributes);
+
+        assertEquals(Module.State.ERROR, attributes.get(ModuleStateAttribute.NAME, Module.State.class));
+    }
+
+    @Test
+    public void testPayloadThatIsNotJsonIsDeadLetteredAsMalformedPayload() throws Exception {
+        attributes.add(new MessageFilterAttribute("$.protocol.name"));
+
+        startForkModule();
+
+        waitForFork();
+
+        createAndPublishMessage("{\"protocol\":{\"name\":");
+
+        assertEquals(1, forkModule.deadLetters.count(DeadLetterReason.MALFORMED_PAYLOAD));
+    }
+
+    @Test
+    public void testFilterSelectingNonStringIsDeadLetteredAsInvalidKey() throws Exception {
+        attributes.add(new MessageFilterAttribute("$.protocol"));
+
+        startForkModule();
+
+        waitForFork();
+
+        createAndPublishMessage("{\"protocol\":{\"id\":1,\"name\":\"SunsetPassDEX\",\"type\":31},\"type\":\"sensor\"}");
+
+        assertEquals(1, forkModule.deadLetters.count(DeadLetterReason.INVALID_KEY));
+    }
+
     @Test
     public void testEmptySensorIdInMessageDoesNotGetUpdateAttribute() throws Exception {
         attributes.add(new MessageFilterAttribute("$.sensoridentifier"));
@@ -424,6 +597,50 @@ public class ForkModuleTest {
         assertNull(forkedChannelsSet);
     }
 
+    @Test
+    public void testClusterMembersForkDisjointSetsOfKeys() throws Exception {
+        String[] memberIds = {"fork-a", "fork-b", "fork-c"};
+        Attributes[] memberAttributes = new Attributes[memberIds.length];
+        ForkModule[] members = new ForkModule[memberIds.length];
+        for (int i = 0; i < memberIds.length; i++) {
+            memberAttributes[i] = AttributesFactory.buildEmptyAttributes(node.channels(), ChannelUtils.join(node.getDefaultUri(), "/forkmodule-" + memberIds[i]));
+            memberAttributes[i].add(new IdAttribute(100 + i));
+            memberAttributes[i].add(new ModuleStateAttribute());
+            memberAttributes[i].add(new IncomingChannelAttribute("/test-fork"));
+            memberAttributes[i].add(new MessageFilterAttribute("$.sensoridentifier"));
+            memberAttributes[i].add(new ClusterMembersAttribute("fork-a, fork-b, fork-c"));
+            memberAttributes[i].add(new ClusterMemberIdAttribute(memberIds[i]));
+            members[i] = new ForkModule();
+            final int member = i;
+            new Thread(() -> members[member].run(node, memberAttributes[member])).start();
+        }
+
+        waitForFork();
+
+        int keys = 30;
+        for (int i = 0; i < keys; i++) {
+            createAndPublishMessage("{\"sensoridentifier\":\"SENSOR_" + i + "\",\"type\":\"sensor\",\"value\":\"\"}");
+        }
+
+        waitForFork();
+
+        Set<String> allForked = new TreeSet<>();
+        int total = 0;
+        for (Attributes memberAttribute : memberAttributes) {
+            Set<String> forked = memberAttribute.get(ForkedChannelsAttribute.FORKED_CHANNELS, Set.class);
+            if (forked != null) {
+                total += forked.size();
+                allForked.addAll(forked);
+            }
+        }
+        for (ForkModule member : members)
+            member.stop(Module.StopReason.USER_DIRECTED);
+
+        // every key is forked by exactly one member
+        assertEquals(keys, allForked.size());
+        assertEquals(keys, total);
+    }
+
     private void createAndPublishMessage(String message) throws Exception {
         BytesMessage sampleMessage = createSampleMessage(message);
 
@@ -435,6 +652,12 @@ public class ForkModuleTest {
         return node.openChannel(channel, BytesMessage.class, new Persistence());
     }
 
+    private static String samplePayload(int sensor) {
+        return "{\"datetime\":\"2015-11-01T17:57:" + (10 + sensor % 50) + "-0700\",\"deviceidentifier\":\"00137a0018cdd\"," +
+                "\"protocol\":{\"id\":1,\"name\":\"SunsetPassDEX\",\"type\":31},\"sensoridentifier\":\"SUNSETPASSDEX_" + sensor +
+                "\",\"type\":\"sensor\",\"value\":\"" + (20 + sensor) + "\"}";
+    }
+
     private BytesMessage createSampleMessage(String message) throws Exception {
         MqttMessage mqttMessage = new MqttMessage();
         mqttMessage.setPayload(message.getBytes());
@@ -0,0 +1,136 @@
+package com.intel.icecp.module.fork;
+
+import com.intel.icecp.module.fork.HeavyHitterSketch.HeavyHitter;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the heavy hitter summary of fork keys
+ *
+ */
+public class HeavyHitterSketchTest {
+    private static final long WINDOW_MS = 1000;
+
+    @Test
+    public void testNoHeavyHittersBeforeFirstWindowCompletes() {
+        HeavyHitterSketch sketch = new HeavyHitterSketch(3, 1024, WINDOW_MS);
+
+        assertFalse(sketch.record("SENSOR_1", 100, 0));
+        assertFalse(sketch.record("SENSOR_1", 100, WINDOW_MS - 1));
+
+        assertTrue(sketch.heavyHitters().isEmpty());
+    }
+
+    @Test
+    public void testDominantKeysAreReportedWithRates() {
+        HeavyHitterSketch sketch = new HeavyHitterSketch(3, 1024, WINDOW_MS);
+        Random random = new Random(42);
+
+        // half of the traffic comes from two runaway sensors, the rest is spread over thousands of keys
+        for (int i = 0; i < 100000; i++) {
+            String key = random.nextBoolean() ? "RUNAWAY_" + random.nextInt(2) : "SENSOR_" + random.nextInt(5000);
+            sketch.record(key, 100, i / 100);
+        }
+        assertTrue(sketch.record("SENSOR_1", 100, WINDOW_MS));
+
+        List<HeavyHitter> heavyHitters = sketch.heavyHitters();
+        assertEquals(3, heavyHitters.size());
+        assertTrue(heavyHitters.get(0).getKey().startsWith("RUNAWAY_"));
+        assertTrue(heavyHitters.get(1).getKey().startsWith("RUNAWAY_"));
+        // each runaway sensor sends about a quarter of 100000 messages per second
+        assertEquals(25000, heavyHitters.get(0).getMessageRate(), 1000);
+        assertEquals(100 * heavyHitters.get(0).getMessageRate(), heavyHitters.get(0).getByteRate(), 1.0);
+    }
+
+    @Test
+    public void testKeySendingFewLargeMessagesIsReportedByBytes() {
+        HeavyHitterSketch sketch = new HeavyHitterSketch(2, 1024, WINDOW_MS);
+        for (int i = 0; i < 1000; i++)
+            sketch.record("CHATTY_" + (i % 2), 10, 0);
+        for (int i = 0; i < 10; i++)
+            sketch.record("CAMERA", 100000, 0);
+        sketch.expire(WINDOW_MS);
+
+        List<HeavyHitter> heavyHitters = sketch.heavyHitters();
+        assertEquals(3, heavyHitters.size());
+        // the chatty sensors lead by message rate, the camera is reported for its byte rate
+        assertTrue(heavyHitters.get(0).getKey().startsWith("CHATTY_"));
+        assertTrue(heavyHitters.get(1).getKey().startsWith("CHATTY_"));
+        assertEquals("CAMERA", heavyHitters.get(2).getKey());
+        assertEquals(1000000, heavyHitters.get(2).getByteRate(), 0);
+    }
+
+    @Test
+    public void testConcurrentRecordsAreAllCounted() throws Exception {
+        HeavyHitterSketch sketch = new HeavyHitterSketch(4, 1024, WINDOW_MS);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            String key = "SENSOR_" + t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10000; i++)
+                    sketch.record(key, 10, 0);
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads)
+            thread.join();
+        sketch.expire(WINDOW_MS);
+
+        List<HeavyHitter> heavyHitters = sketch.heavyHitters();
+        assertEquals(4, heavyHitters.size());
+        for (HeavyHitter heavyHitter : heavyHitters)
+            assertEquals(10000, heavyHitter.getMessageRate(), 0);
+    }
+
+    @Test
+    public void testExpireCompletesWindowWithoutTraffic() {
+        HeavyHitterSketch sketch = new HeavyHitterSketch(1, 1024, WINDOW_MS);
+        for (int i = 0; i < 100; i++)
+            sketch.record("SENSOR_1", 10, 0);
+
+        assertFalse(sketch.expire(WINDOW_MS - 1));
+        assertTrue(sketch.expire(WINDOW_MS));
+        assertEquals(100, sketch.heavyHitters().get(0).getMessageRate(), 0);
+
+        // the window after the traffic stopped completes empty
+        assertTrue(sketch.expire(2 * WINDOW_MS));
+        assertTrue(sketch.heavyHitters().isEmpty());
+        assertFalse(sketch.expire(3 * WINDOW_MS));
+    }
+
+    @Test
+    public void testKeysCollidingInOneRowAreSeparatedByTheOthers() {
+        // as many keys as counters per row: some collide with the runaway key in a row, but not in every row
+        HeavyHitterSketch sketch = new HeavyHitterSketch(2, 64, WINDOW_MS);
+        for (int i = 0; i < 1000; i++)
+            sketch.record("RUNAWAY", 10, 0);
+        for (int i = 0; i < 64; i++)
+            sketch.record("SENSOR_" + i, 10, 0);
+        sketch.expire(WINDOW_MS);
+
+        List<HeavyHitter> heavyHitters = sketch.heavyHitters();
+        assertEquals("RUNAWAY", heavyHitters.get(0).getKey());
+        // every other key is estimated far below the runaway sensor despite row collisions
+        assertTrue(heavyHitters.get(1).getMessageRate() < 100);
+    }
+
+    @Test
+    public void testNewWindowStartsFromEmptySketch() {
+        HeavyHitterSketch sketch = new HeavyHitterSketch(1, 1024, WINDOW_MS);
+        for (int i = 0; i < 100; i++)
+            sketch.record("OLD", 10, 0);
+        sketch.record("NEW", 10, WINDOW_MS);
+        sketch.record("NEW", 10, WINDOW_MS);
+
+        assertTrue(sketch.record("NEW", 10, 2 * WINDOW_MS));
+
+        assertEquals("NEW", sketch.heavyHitters().get(0).getKey());
+    }
+}
@@ -0,0 +1,205 @@
+package com.intel.icecp.module.fork;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.icecp.core.Channel;
+import com.intel.icecp.core.Module;
+import com.intel.icecp.core.Node;
+import com.intel.icecp.core.attributes.Attributes;
+import com.intel.icecp.core.messages.BytesMessage;
+import com.intel.icecp.core.metadata.Persistence;
+import com.intel.icecp.core.misc.OnPublish;
+import com.intel.icecp.module.fork.attributes.IncomingChannelAttribute;
+import com.intel.icecp.module.fork.attributes.MessageFilterAttribute;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Regression tests for the cost of {@link ForkModule.IncomingMessageCallback#onPublish(BytesMessage)}: drives the
+ * callback of a running module with representative messages against a stub node, and fails when the bytes allocated
+ * per message or the 99th percentile latency exceed the budgets in {@code allocation-budget.properties}.
+ *
+ */
+@SuppressWarnings("unchecked")
+public class OnPublishAllocationTest {
+    private static final String BUDGET_FILE = "/allocation-budget.properties";
+    private static final int WARMUP_MESSAGES = 20000;
+    private static final int MEASURED_MESSAGES = 20000;
+    private static final int KEYS = 16;
+    private static final URI NODE_URI = URI.create("ndn:/test-node");
+
+    private final Properties budgets = new Properties();
+    private com.sun.management.ThreadMXBean threads;
+    private ForkModule forkModule;
+
+    @Before
+    public void before() throws IOException {
+        // per-thread allocation counters are a HotSpot extension, skip on JVMs without them
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) threadBean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        try (InputStream budgetFile = getClass().getResourceAsStream(BUDGET_FILE)) {
+            budgets.load(budgetFile);
+        }
+    }
+
+    @After
+    public void after() {
+        if (forkModule != null)
+            forkModule.stop(Module.StopReason.USER_DIRECTED);
+    }
+
+    @Test
+    public void testForkedMessageOnTopLevelKeyStaysWithinBudget() throws Exception {
+        OnPublish<BytesMessage> callback = startModule("$.sensoridentifier");
+        BytesMessage[] messages = new BytesMessage[KEYS];
+        for (int i = 0; i < KEYS; i++)
+            messages[i] = createSampleMessage("{\"datetime\":\"2015-11-01T17:57:53-0700\",\"deviceidentifier\":\"00137a0018cdd\"," +
+                    "\"protocol\":{\"id\":1,\"name\":\"SunsetPassDEX\",\"type\":31},\"sensoridentifier\":\"SUNSETPASSDEX_" + i + "\"," +
+                    "\"type\":\"sensor\",\"value\":\"" + (20 + i) + "\"}");
+
+        assertWithinBudget("forked", callback, messages);
+    }
+
+    @Test
+    public void testForkedMessageOnNestedKeyStaysWithinBudget() throws Exception {
+        OnPublish<BytesMessage> callback = startModule("$.protocol.name");
+        BytesMessage[] messages = new BytesMessage[KEYS];
+        for (int i = 0; i < KEYS; i++)
+            messages[i] = createSampleMessage("{\"datetime\":\"2015-11-01T17:57:53-0700\",\"deviceidentifier\":\"00137a0018cdd\"," +
+                    "\"protocol\":{\"id\":1,\"name\":\"SunsetPassDEX_" + i + "\",\"type\":31},\"sensoridentifier\":\"SUNSETPASSDEX_1\"," +
+                    "\"type\":\"sensor\",\"value\":\"" + (20 + i) + "\"}");
+
+        assertWithinBudget("forked-jsonpath", callback, messages);
+    }
+
+    @Test
+    public void testPassthroughMessageStaysWithinBudget() throws Exception {
+        OnPublish<BytesMessage> callback = startModule("");
+        BytesMessage[] messages = {new BytesMessage(new byte[256])};
+
+        assertWithinBudget("passthrough", callback, messages);
+    }
+
+    /**
+     * Warm the callback up, then measure the bytes allocated by this thread and the latency of every message
+     */
+    private void assertWithinBudget(String scenario, OnPublish<BytesMessage> callback, BytesMessage[] messages) {
+        for (int i = 0; i < WARMUP_MESSAGES; i++)
+            callback.onPublish(messages[i % messages.length]);
+
+        long[] latencies = new long[MEASURED_MESSAGES];
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_MESSAGES; i++) {
+            long start = System.nanoTime();
+            callback.onPublish(messages[i % messages.length]);
+            latencies[i] = System.nanoTime() - start;
+        }
+        long bytesPerMessage = (threads.getThreadAllocatedBytes(threadId) - allocatedBefore) / MEASURED_MESSAGES;
+
+        Arrays.sort(latencies);
+        long p50 = TimeUnit.NANOSECONDS.toMicros(latencies[MEASURED_MESSAGES / 2]);
+        long p99 = TimeUnit.NANOSECONDS.toMicros(latencies[MEASURED_MESSAGES * 99 / 100]);
+        long max = TimeUnit.NANOSECONDS.toMicros(latencies[MEASURED_MESSAGES - 1]);
+        String measured = String.format("%s: %d bytes/message, latency p50 %d us, p99 %d us, max %d us",
+                scenario, bytesPerMessage, p50, p99, max);
+
+        long bytesBudget = budget(scenario + ".bytes-per-message");
+        long p99Budget = budget(scenario + ".p99-us");
+        assertTrue(measured + "; allocation budget is " + bytesBudget + " bytes/message", bytesPerMessage <= bytesBudget);
+        assertTrue(measured + "; p99 latency budget is " + p99Budget + " us", p99 <= p99Budget);
+    }
+
+    private long budget(String name) {
+        String value = budgets.getProperty(name);
+        assertTrue("Missing budget " + name + " in " + BUDGET_FILE, value != null);
+        return Long.parseLong(value.trim());
+    }
+
+    /**
+     * Start a module on a stub node and return the callback it subscribes on the incoming channel. The node opens the
+     * same {@link NoOpChannel} for every URI, so publishing costs nothing beyond the callback itself; the node and
+     * attributes are stub-only mocks, which are only used while the module starts.
+     */
+    private OnPublish<BytesMessage> startModule(String messageFilter) throws Exception {
+        Node node = mock(Node.class, withSettings().stubOnly());
+        Attributes attributes = mock(Attributes.class, withSettings().stubOnly());
+        NoOpChannel channel = new NoOpChannel();
+
+        when(node.getDefaultUri()).thenReturn(NODE_URI);
+        when(node.openChannel(any(URI.class), (Class<BytesMessage>) any(), any(Persistence.class))).thenReturn(channel.proxy());
+        when(attributes.get(IncomingChannelAttribute.INCOMING_CHANNEL, String.class)).thenReturn("/test-fork");
+        when(attributes.get(MessageFilterAttribute.MESSAGE_FILTER, String.class)).thenReturn(messageFilter);
+
+        forkModule = new ForkModule();
+        new Thread(() -> forkModule.run(node, attributes)).start();
+        assertTrue("Module did not subscribe to the incoming channel", channel.subscribed.await(5, TimeUnit.SECONDS));
+        return channel.callback;
+    }
+
+    private static BytesMessage createSampleMessage(String message) throws Exception {
+        MqttMessage mqttMessage = new MqttMessage();
+        mqttMessage.setPayload(message.getBytes());
+
+        ObjectMapper mapper = new ObjectMapper();
+        return new BytesMessage(mapper.writeValueAsBytes(mqttMessage));
+    }
+
+    /**
+     * Channel that keeps the callback subscribed to it and drops everything published on it. A Mockito mock matches
+     * and answers every publish, allocating on the measured thread; this handler only returns the default value of
+     * the method called, so publishing on it allocates no more than the proxy's argument array.
+     */
+    private static class NoOpChannel implements InvocationHandler {
+        private final CountDownLatch subscribed = new CountDownLatch(1);
+        private volatile OnPublish<BytesMessage> callback;
+
+        private Channel<BytesMessage> proxy() {
+            return (Channel<BytesMessage>) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[]{Channel.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "subscribe":
+                    callback = (OnPublish<BytesMessage>) args[0];
+                    subscribed.countDown();
+                    return null;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "NoOpChannel";
+                default:
+                    Class<?> type = method.getReturnType();
+                    return type.isPrimitive() && type != void.class ? Array.get(Array.newInstance(type, 1), 0) : null;
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.intel.icecp.module.fork;
+
+import com.intel.icecp.core.metadata.Persistence;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for choosing the persistence of forked channels by fork key
+ *
+ */
+public class PersistencePolicyTest {
+
+    @Test
+    public void testDefaultPolicyGivesEveryKeyTheDefaultPersistence() {
+        PersistencePolicy policy = PersistencePolicy.defaultPolicy();
+        assertSame(policy.forKey("SUNSETPASSDEX_1"), policy.forKey("FREEZER_1"));
+        assertEquals(PersistencePolicy.DEFAULT_RETENTION, policy.retentionMs("SUNSETPASSDEX_1"));
+    }
+
+    @Test
+    public void testFirstMatchingRuleWins() {
+        PersistencePolicy policy = PersistencePolicy.parse("FREEZER_*=7d; DIAG_?=none; *=1h");
+
+        Persistence freezer = policy.forKey("FREEZER_1");
+        Persistence diagnostics = policy.forKey("DIAG_1");
+        Persistence other = policy.forKey("SUNSETPASSDEX_1");
+
+        assertEquals(TimeUnit.DAYS.toMillis(7), policy.retentionMs("FREEZER_1"));
+        assertEquals(0, policy.retentionMs("DIAG_1"));
+        assertEquals(TimeUnit.HOURS.toMillis(1), policy.retentionMs("SUNSETPASSDEX_1"));
+        // DIAG_? matches a single character only
+        assertEquals(TimeUnit.HOURS.toMillis(1), policy.retentionMs("DIAG_10"));
+
+        assertSame(freezer, policy.forKey("FREEZER_2"));
+        assertSame(diagnostics, policy.forKey("DIAG_2"));
+        assertSame(other, policy.forKey("DIAG_10"));
+        assertNotSame(freezer, diagnostics);
+        assertNotSame(freezer, other);
+        assertNotSame(diagnostics, other);
+    }
+
+    @Test
+    public void testUnmatchedKeysGetDefaultPersistence() {
+        PersistencePolicy policy = PersistencePolicy.parse("DIAG_*=none");
+        assertSame(PersistencePolicy.defaultPolicy().forKey("SUNSETPASSDEX_1"), policy.forKey("SUNSETPASSDEX_1"));
+        assertEquals(PersistencePolicy.DEFAULT_RETENTION, policy.retentionMs("SUNSETPASSDEX_1"));
+        assertSame(PersistencePolicy.defaultPolicy().forKey("FREEZER_1"), PersistencePolicy.parse("*=default").forKey("FREEZER_1"));
+        assertEquals(PersistencePolicy.DEFAULT_RETENTION, PersistencePolicy.parse("*=default").retentionMs("FREEZER_1"));
+    }
+
+    @Test
+    public void testPatternCharactersAreLiteral() {
+        PersistencePolicy policy = PersistencePolicy.parse("a.b=none");
+        assertNotSame(policy.forKey("a.b"), policy.forKey("axb"));
+        assertEquals(0, policy.retentionMs("a.b"));
+        assertEquals(PersistencePolicy.DEFAULT_RETENTION, policy.retentionMs("axb"));
+    }
+
+    @Test
+    public void testDurationUnits() {
+        PersistencePolicy policy = PersistencePolicy.parse("a=500ms; b=30s; c=10m; d=2h; e=7d; f=1500");
+
+        assertEquals(500, policy.retentionMs("a"));
+        assertEquals(30000, policy.retentionMs("b"));
+        assertEquals(600000, policy.retentionMs("c"));
+        assertEquals(7200000, policy.retentionMs("d"));
+        assertEquals(604800000, policy.retentionMs("e"));
+        assertEquals(1500, policy.retentionMs("f"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRuleWithoutRetentionIsRejected() {
+        PersistencePolicy.parse("FREEZER_*");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRetentionIsRejected() {
+        PersistencePolicy.parse("FREEZER_*=forever");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeRetentionIsRejected() {
+        PersistencePolicy.parse("FREEZER_*=-5s");
+    }
+}
@@ -0,0 +1,152 @@
+package com.intel.icecp.module.fork;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the priority lanes in front of forked publishing
+ *
+ */
+public class PrioritySchedulerTest {
+    private static final List<PriorityClass> CLASSES = PriorityClass.parse("alarm:3:4:$.type=alarm; bulk:1:4");
+
+    private PriorityScheduler scheduler;
+    private final CountDownLatch blocked = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+
+    @After
+    public void after() {
+        release.countDown();
+        if (scheduler != null)
+            scheduler.close();
+    }
+
+    @Test
+    public void testParseAddsDefaultLaneLast() {
+        List<PriorityClass> classes = PriorityClass.parse("alarm:8:256:$.type=door-alarm; freezer:4:128:$.type=freezer-alert");
+
+        assertEquals(3, classes.size());
+        assertEquals("alarm", classes.get(0).name());
+        assertEquals(PriorityClass.DEFAULT_NAME, classes.get(2).name());
+        assertTrue(classes.get(0).matches("{\"type\":\"door-alarm\"}".getBytes()));
+        assertFalse(classes.get(1).matches("{\"type\":\"door-alarm\"}".getBytes()));
+        assertTrue(classes.get(2).matches("{\"type\":\"door-alarm\"}".getBytes()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseRejectsInvalidWeight() {
+        PriorityClass.parse("alarm:high:256:$.type=alarm");
+    }
+
+    @Test
+    public void testStrictModeServesHighestLaneFirst() throws Exception {
+        scheduler = new PriorityScheduler(CLASSES, PriorityScheduler.Mode.STRICT);
+        blockWorker();
+
+        submit(1, "bulk-1");
+        submit(1, "bulk-2");
+        submit(0, "alarm-1");
+        submit(0, "alarm-2");
+        release.countDown();
+
+        awaitExecuted(5);
+        assertEquals(Arrays.asList("blocker", "alarm-1", "alarm-2", "bulk-1", "bulk-2"), executed);
+    }
+
+    @Test
+    public void testWeightedModeSharesCapacityByWeight() throws Exception {
+        scheduler = new PriorityScheduler(CLASSES, PriorityScheduler.Mode.WEIGHTED);
+        blockWorker();
+
+        for (int i = 0; i < 4; i++) {
+            submit(0, "alarm");
+            submit(1, "bulk");
+        }
+        release.countDown();
+
+        awaitExecuted(9);
+        // three alarms per bulk message while both lanes are busy
+        assertEquals(Arrays.asList("blocker", "alarm", "alarm", "bulk", "alarm"), executed.subList(0, 5));
+    }
+
+    @Test
+    public void testFullLaneShedsTasksWithoutAffectingOtherLanes() throws Exception {
+        scheduler = new PriorityScheduler(CLASSES, PriorityScheduler.Mode.STRICT);
+        blockWorker();
+
+        for (int i = 0; i < 4; i++)
+            submit(1, "bulk");
+        assertFalse(scheduler.submit(1, () -> executed.add("shed")));
+        submit(0, "alarm");
+
+        assertEquals(Long.valueOf(0), scheduler.shedCounts().get("alarm"));
+        assertEquals(Long.valueOf(1), scheduler.shedCounts().get("bulk"));
+        release.countDown();
+        awaitExecuted(6);
+        assertFalse(executed.contains("shed"));
+    }
+
+    @Test
+    public void testCloseDrainsQueuedTasks() throws Exception {
+        scheduler = new PriorityScheduler(CLASSES, PriorityScheduler.Mode.STRICT);
+        blockWorker();
+
+        submit(0, "alarm");
+        submit(1, "bulk");
+        release.countDown();
+        scheduler.close();
+
+        assertEquals(Arrays.asList("blocker", "alarm", "bulk"), executed);
+    }
+
+    @Test
+    public void testCloseReportsTasksThatCouldNotBeDrained() throws Exception {
+        scheduler = new PriorityScheduler(CLASSES, PriorityScheduler.Mode.STRICT);
+        blockWorker();
+
+        List<String> discarded = Collections.synchronizedList(new ArrayList<>());
+        assertTrue(scheduler.submit(0, () -> executed.add("alarm"), () -> discarded.add("alarm")));
+        assertTrue(scheduler.submit(1, () -> executed.add("bulk"), () -> discarded.add("bulk")));
+        scheduler.close();
+
+        assertEquals(Arrays.asList("alarm", "bulk"), discarded);
+        assertEquals(Collections.singletonList("blocker"), executed);
+        assertFalse(scheduler.submit(0, () -> executed.add("late")));
+    }
+
+    private void blockWorker() throws InterruptedException {
+        scheduler.submit(0, () -> {
+            executed.add("blocker");
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(blocked.await(1, TimeUnit.SECONDS));
+    }
+
+    private void submit(int lane, String name) {
+        assertTrue(scheduler.submit(lane, () -> executed.add(name)));
+    }
+
+    private void awaitExecuted(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (executed.size() < count && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertEquals(count, executed.size());
+    }
+}
@@ -0,0 +1,162 @@
+package com.intel.icecp.module.fork;
+
+import com.intel.icecp.core.Channel;
+import com.intel.icecp.core.Message;
+import com.intel.icecp.core.messages.BytesMessage;
+import com.intel.icecp.core.misc.ChannelIOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for the asynchronous publish pipeline of forked channels
+ *
+ */
+@SuppressWarnings("unchecked")
+public class PublishPipelineTest {
+    private static final PublishPipeline.Completion IGNORE = (name, message, failure, discarded) -> { };
+
+    @Mock
+    private Channel<Message> slowChannel;
+    @Mock
+    private Channel<Message> fastChannel;
+
+    private PublishPipeline pipeline;
+    private final CountDownLatch slowPublishStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseSlowPublish = new CountDownLatch(1);
+
+    @Before
+    public void before() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        doAnswer(invocation -> {
+            slowPublishStarted.countDown();
+            releaseSlowPublish.await();
+            return null;
+        }).when(slowChannel).publish(any(Message.class));
+        pipeline = new PublishPipeline(2, 2);
+    }
+
+    @After
+    public void after() {
+        releaseSlowPublish.countDown();
+        pipeline.close();
+    }
+
+    @Test
+    public void testSlowChannelDoesNotDelayOtherChannels() throws Exception {
+        assertTrue(pipeline.publish("slow", slowChannel, message(), IGNORE));
+        assertTrue(slowPublishStarted.await(1, TimeUnit.SECONDS));
+
+        CountDownLatch fastCompleted = new CountDownLatch(1);
+        assertTrue(pipeline.publish("fast", fastChannel, message(), (name, message, failure, discarded) -> fastCompleted.countDown()));
+
+        assertTrue(fastCompleted.await(1, TimeUnit.SECONDS));
+        assertEquals(1, pipeline.inFlight("slow"));
+    }
+
+    @Test
+    public void testFullWindowRejectsPublishAndReportsSaturation() throws Exception {
+        assertTrue(pipeline.publish("slow", slowChannel, message(), IGNORE));
+        assertTrue(slowPublishStarted.await(1, TimeUnit.SECONDS));
+        assertTrue(pipeline.publish("slow", slowChannel, message(), IGNORE));
+
+        assertFalse(pipeline.publish("slow", slowChannel, message(), IGNORE));
+        PublishPipeline.Saturation saturation = pipeline.saturation().get("slow");
+        assertEquals(1, saturation.getRejected());
+        assertEquals(2, saturation.getInFlight());
+        assertEquals(1.0, saturation.getOccupancy(), 0);
+        assertNull(pipeline.saturation().get("fast"));
+    }
+
+    @Test
+    public void testMoreHungChannelsThanThreadsDoNotStarveOtherChannels() throws Exception {
+        int threads = 2;
+        PublishPipeline stallingPipeline = new PublishPipeline(2, threads, 100, 8);
+        try {
+            CountDownLatch hungPublishesStarted = new CountDownLatch(threads + 1);
+            Channel<Message> hungChannel = mock(Channel.class);
+            doAnswer(invocation -> {
+                hungPublishesStarted.countDown();
+                releaseSlowPublish.await();
+                return null;
+            }).when(hungChannel).publish(any(Message.class));
+
+            for (int i = 0; i <= threads; i++)
+                assertTrue(stallingPipeline.publish("hung-" + i, hungChannel, message(), IGNORE));
+            assertTrue(hungPublishesStarted.await(2, TimeUnit.SECONDS));
+
+            CountDownLatch fastCompleted = new CountDownLatch(1);
+            assertTrue(stallingPipeline.publish("fast", fastChannel, message(), (name, message, failure, discarded) -> fastCompleted.countDown()));
+            assertTrue(fastCompleted.await(2, TimeUnit.SECONDS));
+            assertTrue(stallingPipeline.stalled() > 0);
+
+            releaseSlowPublish.countDown();
+            long deadline = System.currentTimeMillis() + 1000;
+            while (stallingPipeline.stalled() > 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+            assertEquals(0, stallingPipeline.stalled());
+        } finally {
+            stallingPipeline.close();
+        }
+    }
+
+    @Test
+    public void testCloseDiscardsQueuedPublishesThroughTheirCompletions() throws Exception {
+        List<String> discarded = Collections.synchronizedList(new ArrayList<>());
+        PublishPipeline.Completion recordDiscarded = (name, message, failure, wasDiscarded) -> {
+            if (wasDiscarded)
+                discarded.add(name);
+        };
+        assertTrue(pipeline.publish("slow", slowChannel, message(), recordDiscarded));
+        assertTrue(slowPublishStarted.await(1, TimeUnit.SECONDS));
+        assertTrue(pipeline.publish("slow", slowChannel, message(), recordDiscarded));
+
+        // the first publish hangs past the shutdown timeout, so both are discarded
+        pipeline.close();
+        releaseSlowPublish.countDown();
+
+        assertEquals(Arrays.asList("slow", "slow"), discarded);
+        assertFalse(pipeline.publish("slow", slowChannel, message(), recordDiscarded));
+        Thread.sleep(50);
+        assertEquals(2, discarded.size());
+    }
+
+    @Test
+    public void testCompletionReceivesPublishFailure() throws Exception {
+        ChannelIOException exception = new ChannelIOException("testMessage");
+        doThrow(exception).when(fastChannel).publish(any(Message.class));
+        AtomicReference<ChannelIOException> failure = new AtomicReference<>();
+        CountDownLatch completed = new CountDownLatch(1);
+
+        pipeline.publish("fast", fastChannel, message(), (name, message, e, discarded) -> {
+            failure.set(e);
+            completed.countDown();
+        });
+
+        assertTrue(completed.await(1, TimeUnit.SECONDS));
+        assertEquals(exception, failure.get());
+    }
+
+    private static Message message() {
+        return new BytesMessage("...".getBytes());
+    }
+}
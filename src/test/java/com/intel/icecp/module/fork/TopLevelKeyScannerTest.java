@@ -0,0 +1,157 @@
+package com.intel.icecp.module.fork;
+
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.PathNotFoundException;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit and fuzz tests for the top-level key scanner, checking it against JsonPath
+ *
+ */
+public class TopLevelKeyScannerTest {
+    private static final String FILTER = "$.sensoridentifier";
+    private static final String[] KEYS = {"sensoridentifier", "datetime", "type", "value", "protocol", "sensorid", "sensoridentifierx"};
+    private static final int FUZZ_ITERATIONS = 20000;
+
+    private final TopLevelKeyScanner scanner = TopLevelKeyScanner.forFilter(FILTER);
+
+    @Test
+    public void testSimpleFiltersAreDetected() {
+        assertNotNull(TopLevelKeyScanner.forFilter("$.sensoridentifier"));
+        assertNotNull(TopLevelKeyScanner.forFilter("$['sensor-id']"));
+        assertNull(TopLevelKeyScanner.forFilter("$.protocol.name"));
+        assertNull(TopLevelKeyScanner.forFilter("$..sensoridentifier"));
+        assertNull(TopLevelKeyScanner.forFilter("$[?(@.type == 'sensor')]"));
+        assertNull(TopLevelKeyScanner.forFilter(""));
+        assertNull(TopLevelKeyScanner.forFilter(null));
+    }
+
+    @Test
+    public void testScanFindsTopLevelValue() {
+        String json = "{\"datetime\":\"2015-11-01T17:57:53-0700\",\"protocol\":{\"id\":1,\"sensoridentifier\":\"NESTED\"}," +
+                "\"sensoridentifier\":\"SUNSETPASSDEX_1\",\"type\":\"sensor\",\"value\":\"\"}";
+
+        assertEquals("SUNSETPASSDEX_1", scan(json));
+    }
+
+    @Test
+    public void testScanIgnoresNestedKey() {
+        assertNull(scan("{\"protocol\":{\"sensoridentifier\":\"NESTED\"},\"type\":\"sensor\"}"));
+    }
+
+    @Test
+    public void testScanFallsBackOnEscapedValue() {
+        assertNull(scan("{\"sensoridentifier\":\"SUNSET\\\"PASS\"}"));
+    }
+
+    @Test
+    public void testScanFallsBackOnNonStringValue() {
+        assertNull(scan("{\"sensoridentifier\":1234}"));
+        assertNull(scan("{\"sensoridentifier\":null}"));
+    }
+
+    @Test
+    public void testScanFallsBackOnMalformedInput() {
+        assertNull(scan("{\"sensoridentifier\":\"SUNSETPASSDEX_1\""));
+        assertNull(scan("{\"sensoridentifier\":\"SUNSETPASSDEX_1\"} trailing"));
+        assertNull(scan("{\"a\":[1,}],\"sensoridentifier\":\"SUNSETPASSDEX_1\"}"));
+        assertNull(scan("[\"sensoridentifier\"]"));
+        assertNull(scan(""));
+    }
+
+    @Test
+    public void testScanTakesLastDuplicateKey() {
+        assertEquals("SECOND", scan("{\"sensoridentifier\":\"FIRST\",\"sensoridentifier\":\"SECOND\"}"));
+    }
+
+    @Test
+    public void testFuzzScanIsEquivalentToJsonPath() {
+        Random random = new Random(0x5ca77e4L);
+        int handled = 0;
+        for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+            String json = randomObject(random, 0);
+            String scanned = scan(json);
+            if (scanned != null) {
+                handled++;
+                assertEquals("Mismatch for " + json, readWithJsonPath(json), scanned);
+            }
+        }
+        // the fast path must actually take most documents, not fall back on everything
+        assertTrue(handled > FUZZ_ITERATIONS / 4);
+    }
+
+    private String scan(String json) {
+        return scanner.scan(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Object readWithJsonPath(String json) {
+        try {
+            return JsonPath.read(json, FILTER);
+        } catch (PathNotFoundException e) {
+            return e;
+        }
+    }
+
+    private static String randomObject(Random random, int depth) {
+        StringBuilder json = new StringBuilder();
+        json.append('{').append(whitespace(random));
+        int fields = random.nextInt(depth == 0 ? 8 : 4);
+        // most top-level objects carry the filtered key somewhere, usually with a string value
+        int target = depth == 0 && random.nextInt(5) > 0 ? random.nextInt(fields + 1) : -1;
+        for (int i = 0; i <= fields; i++) {
+            if (i == fields && i != target)
+                break;
+            if (i > 0)
+                json.append(',').append(whitespace(random));
+            String key = i == target ? "sensoridentifier" : KEYS[random.nextInt(KEYS.length)];
+            String value = i == target && random.nextInt(4) > 0 ? '"' + randomString(random) + '"' : randomValue(random, depth);
+            json.append('"').append(key).append('"').append(whitespace(random))
+                    .append(':').append(whitespace(random)).append(value).append(whitespace(random));
+        }
+        return json.append('}').append(whitespace(random)).toString();
+    }
+
+    private static String randomValue(Random random, int depth) {
+        switch (random.nextInt(depth < 3 ? 8 : 6)) {
+            case 0:
+            case 1:
+            case 2:
+                return '"' + randomString(random) + '"';
+            case 3:
+                return Integer.toString(random.nextInt(2000) - 1000) + (random.nextBoolean() ? ".5" : "") + (random.nextInt(4) == 0 ? "e3" : "");
+            case 4:
+                return random.nextBoolean() ? "true" : "false";
+            case 5:
+                return "null";
+            case 6:
+                return randomObject(random, depth + 1);
+            default:
+                StringBuilder array = new StringBuilder("[");
+                int elements = random.nextInt(4);
+                for (int i = 0; i < elements; i++)
+                    array.append(i > 0 ? "," : "").append(randomValue(random, depth + 1));
+                return array.append(']').toString();
+        }
+    }
+
+    private static String randomString(Random random) {
+        String[] pieces = {"SUNSET", "PASS", "DEX_", "1", "-", " ", "\u00e9", "\u6e29\u5ea6", "\\\"", "\\\\", "\\u0041", "{", "}", ":", ","};
+        StringBuilder text = new StringBuilder();
+        int length = random.nextInt(6);
+        for (int i = 0; i < length; i++)
+            text.append(pieces[random.nextInt(pieces.length)]);
+        return text.toString();
+    }
+
+    private static String whitespace(Random random) {
+        return random.nextInt(4) == 0 ? " \n\t".substring(0, 1 + random.nextInt(3)) : "";
+    }
+}
@@ -0,0 +1,181 @@
+package com.intel.icecp.module.fork;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the windowed per-key aggregation of numeric fields
+ *
+ */
+public class WindowedAggregatorTest {
+    private static final long MINUTE = 60000;
+    // start of a minute, so panes of one minute are aligned on it
+    private static final long T0 = 1000 * MINUTE;
+
+    @Test
+    public void testTumblingWindowAggregatesEachKey() {
+        WindowedAggregator aggregator = aggregator("$.value", "1m", 16);
+        for (int i = 1; i <= 4; i++)
+            aggregator.record("SENSOR_1", "test-fork/SENSOR_1", payload("{\"value\":" + i + "}"), T0 + i * 1000);
+        aggregator.record("SENSOR_2", "test-fork/SENSOR_2", payload("{\"value\":10.5}"), T0);
+
+        assertTrue(aggregator.tick(T0 + MINUTE / 2).isEmpty());
+        List<WindowedAggregator.WindowAggregate> aggregates = aggregator.tick(T0 + MINUTE);
+
+        assertEquals(2, aggregates.size());
+        WindowedAggregator.WindowAggregate first = aggregates.get(0).getKey().equals("SENSOR_1") ? aggregates.get(0) : aggregates.get(1);
+        assertEquals("test-fork/SENSOR_1/agg/1m", first.channel());
+        assertEquals(T0, first.getStart());
+        assertEquals(T0 + MINUTE, first.getEnd());
+        WindowedAggregator.Statistics statistics = first.getStatistics().get("$.value");
+        assertEquals(4, statistics.getCount());
+        assertEquals(1, statistics.getMin(), 0);
+        assertEquals(4, statistics.getMax(), 0);
+        assertEquals(2.5, statistics.getMean(), 0);
+
+        // the next window starts empty
+        assertTrue(aggregator.tick(T0 + 2 * MINUTE).isEmpty());
+    }
+
+    @Test
+    public void testSlidingWindowCombinesPanes() {
+        WindowedAggregator aggregator = aggregator("$.value", "3m/1m", 16);
+        aggregator.record("SENSOR_1", "test-fork/SENSOR_1", payload("{\"value\":1}"), T0);
+        aggregator.record("SENSOR_1", "test-fork/SENSOR_1", payload("{\"value\":5}"), T0 + MINUTE);
+
+        List<WindowedAggregator.WindowAggregate> aggregates = aggregator.tick(T0 + 2 * MINUTE);
+        assertEquals(1, aggregates.size());
+        assertEquals("test-fork/SENSOR_1/agg/3m-1m", aggregates.get(0).channel());
+        assertEquals(T0 - MINUTE, aggregates.get(0).getStart());
+        assertEquals(2, aggregates.get(0).getStatistics().get("$.value").getCount());
+        assertEquals(6, aggregates.get(0).getStatistics().get("$.value").getSum(), 0);
+
+        // this tick is one slide late: the window ending with the skipped pane is closed first, then the first pane
+        // slides out of the window
+        aggregates = aggregator.tick(T0 + 4 * MINUTE);
+        assertEquals(2, aggregates.size());
+        assertEquals(2, aggregates.get(0).getStatistics().get("$.value").getCount());
+        assertEquals(1, aggregates.get(1).getStatistics().get("$.value").getCount());
+        assertEquals(5, aggregates.get(1).getStatistics().get("$.value").getMin(), 0);
+    }
+
+    @Test
+    public void testLateTickClosesEveryEndedPane() {
+        WindowedAggregator aggregator = aggregator("$.value", "1m", 16);
+        assertTrue(aggregator.tick(T0).isEmpty());
+        aggregator.record("SENSOR_1", "test-fork/SENSOR_1", payload("{\"value\":1}"), T0 + 1000);
+        aggregator.record("SENSOR_1", "test-fork/SENSOR_1", payload("{\"value\":2}"), T0 + MINUTE + 1000);
+        aggregator.record("SENSOR_1", "test-fork/SENSOR_1", payload("{\"value\":100}"), T0 + 2 * MINUTE + 100);
+
+        // two panes ended since the last tick
+        List<WindowedAggregator.WindowAggregate> aggregates = aggregator.tick(T0 + 2 * MINUTE + 500);
+        assertEquals(2, aggregates.size());
+        assertEquals(T0, aggregates.get(0).getStart());
+        assertEquals(1, aggregates.get(0).getStatistics().get("$.value").getSum(), 0);
+        assertEquals(T0 + MINUTE, aggregates.get(1).getStart());
+        assertEquals(2, aggregates.get(1).getStatistics().get("$.value").getSum(), 0);
+        assertEquals(0, aggregator.skipped());
+    }
+
+    @Test
+    public void testWindowsNoLongerHeldByTheRingsAreSkipped() {
+        WindowedAggregator aggregator = aggregator("$.value", "1m", 16);
+        aggregator.tick(T0);
+        aggregator.record("SENSOR_1", "test-fork/SENSOR_1", payload("{\"value\":1}"), T0 + 4 * MINUTE);
+
+        List<WindowedAggregator.WindowAggregate> aggregates = aggregator.tick(T0 + 5 * MINUTE);
+        assertEquals(1, aggregates.size());
+        assertEquals(T0 + 4 * MINUTE, aggregates.get(0).getStart());
+        assertEquals(3, aggregator.skipped());
+    }
+
+    @Test
+    public void testRecordInNextPaneDoesNotOverwriteUnclosedPane() {
+        WindowedAggregator aggregator = aggregator("$.value", "1m", 16);
+        aggregator.record("SENSOR_1", "test-fork/SENSOR_1", payload("{\"value\":1}"), T0 + 1000);
+        aggregator.record("SENSOR_1", "test-fork/SENSOR_1", payload("{\"value\":3}"), T0 + 2000);
+        // the next pane starts before the tick closing the first one
+        aggregator.record("SENSOR_1", "test-fork/SENSOR_1", payload("{\"value\":100}"), T0 + MINUTE + 100);
+
+        List<WindowedAggregator.WindowAggregate> aggregates = aggregator.tick(T0 + MINUTE + 500);
+        assertEquals(1, aggregates.size());
+        assertEquals(T0, aggregates.get(0).getStart());
+        WindowedAggregator.Statistics statistics = aggregates.get(0).getStatistics().get("$.value");
+        assertEquals(2, statistics.getCount());
+        assertEquals(4, statistics.getSum(), 0);
+        assertEquals(3, statistics.getMax(), 0);
+
+        aggregates = aggregator.tick(T0 + 2 * MINUTE);
+        assertEquals(1, aggregates.get(0).getStatistics().get("$.value").getCount());
+        assertEquals(100, aggregates.get(0).getStatistics().get("$.value").getSum(), 0);
+    }
+
+    @Test
+    public void testRecordInNextPaneDoesNotOverwriteOldestPaneOfSlidingWindow() {
+        WindowedAggregator aggregator = aggregator("$.value", "2m/1m", 16);
+        aggregator.record("SENSOR_1", "test-fork/SENSOR_1", payload("{\"value\":1}"), T0 + 1000);
+        aggregator.record("SENSOR_1", "test-fork/SENSOR_1", payload("{\"value\":2}"), T0 + MINUTE + 1000);
+        aggregator.record("SENSOR_1", "test-fork/SENSOR_1", payload("{\"value\":100}"), T0 + 2 * MINUTE + 100);
+
+        List<WindowedAggregator.WindowAggregate> aggregates = aggregator.tick(T0 + 2 * MINUTE + 500);
+        assertEquals(T0, aggregates.get(0).getStart());
+        assertEquals(2, aggregates.get(0).getStatistics().get("$.value").getCount());
+        assertEquals(3, aggregates.get(0).getStatistics().get("$.value").getSum(), 0);
+    }
+
+    @Test
+    public void testMissingAndNonNumericFieldsAreSkipped() {
+        WindowedAggregator aggregator = aggregator("$.value, $.humidity", "1m", 16);
+        aggregator.record("SENSOR_1", "test-fork/SENSOR_1", payload("{\"value\":\"high\",\"humidity\":40}"), T0);
+        aggregator.record("SENSOR_2", "test-fork/SENSOR_2", payload("{\"type\":\"sensor\"}"), T0);
+        aggregator.record("SENSOR_3", "test-fork/SENSOR_3", payload("not json"), T0);
+
+        List<WindowedAggregator.WindowAggregate> aggregates = aggregator.tick(T0 + MINUTE);
+        assertEquals(1, aggregates.size());
+        assertEquals(1, aggregates.get(0).getStatistics().size());
+        assertEquals(40, aggregates.get(0).getStatistics().get("$.humidity").getMax(), 0);
+    }
+
+    @Test
+    public void testKeysAreBounded() {
+        WindowedAggregator aggregator = aggregator("$.value", "1m", 100);
+        for (int i = 0; i < 1000; i++)
+            aggregator.record("SENSOR_" + i, "test-fork/SENSOR_" + i, payload("{\"value\":1}"), T0);
+
+        assertEquals(100, aggregator.size());
+        assertEquals(900, aggregator.evicted());
+        assertEquals(100, aggregator.tick(T0 + MINUTE).size());
+    }
+
+    @Test
+    public void testIdleKeysAreDropped() {
+        WindowedAggregator aggregator = aggregator("$.value", "1m", 16);
+        aggregator.record("SENSOR_1", "test-fork/SENSOR_1", payload("{\"value\":1}"), T0);
+        aggregator.tick(T0 + MINUTE);
+        aggregator.tick(T0 + 3 * MINUTE);
+        assertEquals(0, aggregator.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWindowSizeMustBeMultipleOfSlide() {
+        WindowedAggregator.parseWindows("5m/2m");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSlideShorterThanTickIsRejected() {
+        WindowedAggregator.parseWindows("2s/500ms");
+    }
+
+    private static WindowedAggregator aggregator(String paths, String windows, int maxKeys) {
+        return new WindowedAggregator(WindowedAggregator.parsePaths(paths), WindowedAggregator.parseWindows(windows), maxKeys);
+    }
+
+    private static byte[] payload(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}